@@ -1,24 +1,198 @@
 import javax.imageio.ImageIO;
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanParameterInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.ReflectionException;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.awt.event.InputEvent;
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.awt.event.MouseWheelEvent;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Path2D;
+import java.awt.image.BufferStrategy;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 import java.awt.image.ImageObserver;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
 import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.LinkedList;
-import java.util.Random;
-import java.util.Stack;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
 
 enum Direction {
 
-    NORTH,
-    EAST,
-    SOUTH,
-    WEST
+    NORTH(0, -1),
+    EAST(1, 0),
+    SOUTH(0, 1),
+    WEST(-1, 0);
+
+    public static final Direction[] VALUES = values();
+
+    private final int dx;
+    private final int dy;
+
+    Direction(int dx, int dy) {
+        this.dx = dx;
+        this.dy = dy;
+    }
+
+    public int getDx() {
+        return dx;
+    }
+
+    public int getDy() {
+        return dy;
+    }
+
+    public int bit() {
+        return 1 << ordinal();
+    }
+
+    public Direction opposite() {
+        return VALUES[(ordinal() + 2) & 3];
+    }
+}
+
+enum CellKind {
+
+    BOARD,
+    WALL,
+    ENTRANCE,
+    EXIT;
+
+    public static final CellKind[] VALUES = values();
+}
+
+enum ItemType {
+
+    NONE(null),
+    CIRCLE_OBSTACLE(Color.YELLOW),
+    DIAMOND_OBSTACLE(Color.decode("#9C27B0")),
+    CIRCLE_REWARD(Color.CYAN),
+    DIAMOND_REWARD(Color.BLUE),
+    HEART_REWARD(Color.RED);
+
+    public static final ItemType[] VALUES = values();
+
+    private static final int[] SCORES = new int[VALUES.length];
+
+    static {
+        for (ItemType type : VALUES) {
+            Item item = type.create(0);
+            if (item instanceof Obstacle) {
+                SCORES[type.ordinal()] = ((Obstacle) item).getPenalty();
+            } else if (item instanceof Reward) {
+                SCORES[type.ordinal()] = ((Reward) item).getReward();
+            }
+        }
+    }
+
+    private final Color color;
+
+    ItemType(Color color) {
+        this.color = color;
+    }
+
+    public Color getColor() {
+        return color;
+    }
+
+    public int getScore() {
+        return SCORES[ordinal()];
+    }
+
+    public static int scoreOf(int code) {
+        return SCORES[code];
+    }
+
+    public Item create(int size) {
+        switch (this) {
+            case CIRCLE_OBSTACLE:
+                return new CircleObstacle(0, 0, size, color, null);
+            case DIAMOND_OBSTACLE:
+                return new DiamondObstacle(0, 0, size, color, null);
+            case CIRCLE_REWARD:
+                return new CircleReward(0, 0, size, color, null);
+            case DIAMOND_REWARD:
+                return new DiamondReward(0, 0, size, color, null);
+            case HEART_REWARD:
+                return new HeartReward(0, 0, size, color, null);
+            default:
+                return null;
+        }
+    }
 }
 
 interface Drawable {
@@ -26,6 +200,200 @@ interface Drawable {
     void draw(Graphics2D g2d, ImageObserver observer);
 }
 
+final class ImageCache {
+
+    private static final int MAX_ENTRIES = 64;
+    private static final Image MISSING = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+
+    private static final Map<String, Image> images = new LinkedHashMap<String, Image>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Image> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    private ImageCache() {
+    }
+
+    // Decodes each path once and remembers failures, so empty or missing paths cost a map lookup.
+    public static synchronized Image get(String path) {
+        if (path == null || path.isEmpty()) {
+            return null;
+        }
+
+        Image image = images.get(path);
+        if (image == null) {
+            image = load(path);
+            images.put(path, image == null ? MISSING : image);
+        }
+        return image == MISSING ? null : image;
+    }
+
+    public static synchronized void clear() {
+        images.clear();
+    }
+
+    private static Image load(String path) {
+        File file = new File(path);
+        if (!file.isFile()) {
+            return null;
+        }
+
+        try {
+            BufferedImage image = ImageIO.read(file);
+            return image == null ? null : toCompatible(image);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static BufferedImage toCompatible(BufferedImage image) {
+        if (GraphicsEnvironment.isHeadless()) {
+            return image;
+        }
+
+        GraphicsConfiguration gc = GraphicsEnvironment.getLocalGraphicsEnvironment()
+                .getDefaultScreenDevice().getDefaultConfiguration();
+        if (image.getColorModel().equals(gc.getColorModel(image.getTransparency()))) {
+            return image;
+        }
+
+        BufferedImage compatible = gc.createCompatibleImage(image.getWidth(), image.getHeight(), image.getTransparency());
+        Graphics2D g2d = compatible.createGraphics();
+        g2d.drawImage(image, 0, 0, null);
+        g2d.dispose();
+        return compatible;
+    }
+}
+
+// Item outlines at the origin, built once per (shape, size) and positioned by translating the Graphics.
+final class ShapeCache {
+
+    private static final int MAX_ENTRIES = 64;
+    private static final int DIAMOND = 0;
+    private static final int HEART = 1;
+
+    private static final Map<Long, Shape> shapes = new LinkedHashMap<Long, Shape>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Shape> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    private ShapeCache() {
+    }
+
+    public static synchronized Shape diamond(int size) {
+        Long key = key(DIAMOND, size);
+        Shape shape = shapes.get(key);
+        if (shape == null) {
+            Path2D path = new Path2D.Double();
+            path.moveTo(0, (double) size / 2);
+            path.lineTo((double) size / 2, 0);
+            path.lineTo(size, (double) size / 2);
+            path.lineTo((double) size / 2, size);
+            path.closePath();
+            shape = path;
+            shapes.put(key, shape);
+        }
+        return shape;
+    }
+
+    public static synchronized Shape heart(int size) {
+        Long key = key(HEART, size);
+        Shape shape = shapes.get(key);
+        if (shape == null) {
+            float beX = size / 2f;
+            float beY = size;
+            float c1DX = size * 0.968f;
+            float c1DY = size * 0.672f;
+            float c2DX = size * 0.281f;
+            float c2DY = size * 1.295f;
+            float teDY = size * 0.850f;
+
+            Path2D.Float path = new Path2D.Float();
+            path.moveTo(beX, beY);
+            path.curveTo(beX - c1DX, beY - c1DY, beX - c2DX, beY - c2DY, beX, beY - teDY);
+            path.curveTo(beX + c2DX, beY - c2DY, beX + c1DX, beY - c1DY, beX, beY);
+            shape = path;
+            shapes.put(key, shape);
+        }
+        return shape;
+    }
+
+    private static Long key(int shape, int size) {
+        return ((long) shape << 32) | size;
+    }
+
+    // Fills a cached shape at (x, y) without building a transformed copy.
+    static void fill(Graphics2D g2d, Shape shape, int x, int y) {
+        g2d.translate(x, y);
+        g2d.fill(shape);
+        g2d.translate(-x, -y);
+    }
+}
+
+// Every item type pre-rendered side by side in one image, at one item size and device scale, so
+// drawing an item is a single blit. Atlases are shared and never change once built.
+final class SpriteAtlas {
+
+    private static final int MAX_ENTRIES = 16;
+
+    private static final Map<Long, SpriteAtlas> atlases = new LinkedHashMap<Long, SpriteAtlas>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, SpriteAtlas> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    private final BufferedImage image;
+    private final int pixels;
+
+    private SpriteAtlas(int size, double scale) {
+        pixels = Math.max(1, (int) Math.round(size * scale));
+        image = new BufferedImage(pixels * ItemType.VALUES.length, pixels, BufferedImage.TYPE_INT_ARGB_PRE);
+        Graphics2D g2d = image.createGraphics();
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        for (ItemType type : ItemType.VALUES) {
+            Item item = type.create(size);
+            if (item == null) {
+                continue;
+            }
+            Graphics2D slot = (Graphics2D) g2d.create(type.ordinal() * pixels, 0, pixels, pixels);
+            slot.scale((double) pixels / size, (double) pixels / size);
+            item.drawShape(slot);
+            slot.dispose();
+        }
+        g2d.dispose();
+    }
+
+    // Atlas for items of the given user-space size drawn under the given device scale.
+    public static synchronized SpriteAtlas get(int size, double scale) {
+        Long key = ((long) size << 32) | Math.round(scale * 1000);
+        SpriteAtlas atlas = atlases.get(key);
+        if (atlas == null) {
+            atlas = new SpriteAtlas(size, scale);
+            atlases.put(key, atlas);
+        }
+        return atlas;
+    }
+
+    // Device scale of a Graphics, or 0 if it rotates, shears or flips and so needs vector drawing.
+    public static double scaleOf(Graphics2D g2d) {
+        AffineTransform transform = g2d.getTransform();
+        int type = transform.getType() & ~AffineTransform.TYPE_TRANSLATION;
+        if (type == AffineTransform.TYPE_IDENTITY) {
+            return 1;
+        }
+        return type == AffineTransform.TYPE_UNIFORM_SCALE && transform.getScaleX() > 0 ? transform.getScaleX() : 0;
+    }
+
+    public void draw(Graphics2D g2d, ItemType type, int x, int y, int size, ImageObserver observer) {
+        int sx = type.ordinal() * pixels;
+        g2d.drawImage(image, x, y, x + size, y + size, sx, 0, sx + pixels, pixels, observer);
+    }
+}
+
 abstract class BaseObject implements Drawable, Serializable {
 
     protected int x;
@@ -72,11 +440,7 @@ abstract class BoardObject extends BaseObject implements Serializable {
         super(x, y, size);
 
         this.bgColor = bgColor;
-        try {
-            this.bgImage = ImageIO.read(new File(bgImage));
-        } catch (Exception e) {
-            this.bgImage = null;
-        }
+        this.bgImage = ImageCache.get(bgImage);
     }
 
     public Color getBgColor() {
@@ -100,16 +464,13 @@ abstract class Item extends BaseObject implements Serializable {
 
     protected Color color;
     protected Image image;
+    protected transient SpriteAtlas atlas;
 
     public Item(int x, int y, int size, Color color, String image) {
         super(x, y, size);
 
         this.color = color;
-        try {
-            this.image = ImageIO.read(new File(image));
-        } catch (Exception e) {
-            this.image = null;
-        }
+        this.image = ImageCache.get(image);
     }
 
     public Color getColor() {
@@ -129,12 +490,33 @@ abstract class Item extends BaseObject implements Serializable {
     }
 
     public void setImage(String image) {
-        try {
-            this.image = ImageIO.read(new File(image));
-        } catch (Exception e) {
-            this.image = null;
+        this.image = ImageCache.get(image);
+    }
+
+    public abstract ItemType getType();
+
+    public SpriteAtlas getAtlas() {
+        return atlas;
+    }
+
+    // Set while a board draws at a known scale; the atlas only holds each type in its own colour.
+    public void setAtlas(SpriteAtlas atlas) {
+        this.atlas = atlas;
+    }
+
+    @Override
+    public void draw(Graphics2D g2d, ImageObserver observer) {
+        if (atlas != null && color.equals(getType().getColor())) {
+            atlas.draw(g2d, getType(), x, y, size, observer);
+        } else {
+            g2d.translate(x, y);
+            drawShape(g2d);
+            g2d.translate(-x, -y);
         }
     }
+
+    // Draws the item's outline at the origin.
+    protected abstract void drawShape(Graphics2D g2d);
 }
 
 abstract class Obstacle extends Item implements Serializable {
@@ -153,9 +535,14 @@ class CircleObstacle extends Obstacle implements Serializable {
     }
 
     @Override
-    public void draw(Graphics2D g2d, ImageObserver observer) {
+    public ItemType getType() {
+        return ItemType.CIRCLE_OBSTACLE;
+    }
+
+    @Override
+    protected void drawShape(Graphics2D g2d) {
         g2d.setColor(color);
-        g2d.fillOval(x, y, size, size);
+        g2d.fillOval(0, 0, size, size);
     }
 
     @Override
@@ -171,18 +558,14 @@ class DiamondObstacle extends Obstacle implements Serializable {
     }
 
     @Override
-    public void draw(Graphics2D g2d, ImageObserver observer) {
-        Path2D path = new Path2D.Double();
-        path.moveTo(0, (double) size / 2);
-        path.lineTo((double) size / 2, 0);
-        path.lineTo(size, (double) size / 2);
-        path.lineTo((double) size / 2, size);
-        path.closePath();
-
-        AffineTransform at = AffineTransform.getTranslateInstance(x, y);
-        Shape shape = at.createTransformedShape(path);
+    public ItemType getType() {
+        return ItemType.DIAMOND_OBSTACLE;
+    }
+
+    @Override
+    protected void drawShape(Graphics2D g2d) {
         g2d.setColor(color);
-        g2d.fill(shape);
+        g2d.fill(ShapeCache.diamond(size));
     }
 
     @Override
@@ -207,9 +590,14 @@ class CircleReward extends Reward implements Serializable {
     }
 
     @Override
-    public void draw(Graphics2D g2d, ImageObserver observer) {
+    public ItemType getType() {
+        return ItemType.CIRCLE_REWARD;
+    }
+
+    @Override
+    protected void drawShape(Graphics2D g2d) {
         g2d.setColor(color);
-        g2d.fillOval(x, y, size, size);
+        g2d.fillOval(0, 0, size, size);
     }
 
     @Override
@@ -225,18 +613,14 @@ class DiamondReward extends Reward implements Serializable {
     }
 
     @Override
-    public void draw(Graphics2D g2d, ImageObserver observer) {
-        Path2D path = new Path2D.Double();
-        path.moveTo(0, (double) size / 2);
-        path.lineTo((double) size / 2, 0);
-        path.lineTo(size, (double) size / 2);
-        path.lineTo((double) size / 2, size);
-        path.closePath();
-
-        AffineTransform at = AffineTransform.getTranslateInstance(x, y);
-        Shape shape = at.createTransformedShape(path);
+    public ItemType getType() {
+        return ItemType.DIAMOND_REWARD;
+    }
+
+    @Override
+    protected void drawShape(Graphics2D g2d) {
         g2d.setColor(color);
-        g2d.fill(shape);
+        g2d.fill(ShapeCache.diamond(size));
     }
 
     @Override
@@ -252,34 +636,20 @@ class HeartReward extends Reward implements Serializable {
     }
 
     @Override
-    public void draw(Graphics2D g2d, ImageObserver observer) {
-        Path2D heartPath = createHeartPath(x, y, size, size);
+    public ItemType getType() {
+        return ItemType.HEART_REWARD;
+    }
+
+    @Override
+    protected void drawShape(Graphics2D g2d) {
         g2d.setColor(color);
-        g2d.fill(heartPath);
+        g2d.fill(ShapeCache.heart(size));
     }
 
     @Override
     public int getReward() {
         return 15;
     }
-
-    private Path2D createHeartPath(float x, float y, float width, float height) {
-        float beX = x + width / 2;
-        float beY = y + height;
-
-        float c1DX = width * 0.968f;
-        float c1DY = height * 0.672f;
-        float c2DX = width * 0.281f;
-        float c2DY = height * 1.295f;
-        float teDY = height * 0.850f;
-
-        Path2D.Float heartPath = new Path2D.Float();
-        heartPath.moveTo(beX, beY);
-        heartPath.curveTo(beX - c1DX, beY - c1DY, beX - c2DX, beY - c2DY, beX, beY - teDY);
-        heartPath.curveTo(beX + c2DX, beY - c2DY, beX + c1DX, beY - c1DY, beX, beY);
-
-        return heartPath;
-    }
 }
 
 abstract class Cell extends BoardObject implements Serializable {
@@ -344,19 +714,13 @@ class BoardCell extends Cell implements Serializable {
 
     protected Item item;
     protected Color wallColor;
-    protected boolean[] walls;
+    protected int walls;
 
     public BoardCell(int x, int y, int size, Color bgColor, String bgImage, Item item, Color wallColor) {
         super(x, y, size, bgColor, bgImage);
-        this.item = item;
         this.wallColor = wallColor;
-        this.walls = new boolean[]{true, true, true, true};
-
-        if (item != null) {
-            item.setX(x + 2);
-            item.setY(y + 2);
-            item.setSize(size - 4);
-        }
+        this.walls = BoardGrid.ALL_WALLS;
+        setItem(item);
     }
 
     @Override
@@ -373,351 +737,8300 @@ class BoardCell extends Cell implements Serializable {
         }
 
         g2d.setColor(wallColor);
-        if (walls[Direction.NORTH.ordinal()]) {
+        if (hasWall(Direction.NORTH)) {
             g2d.drawLine(x, y, x + size, y);
         }
 
-        if (walls[Direction.EAST.ordinal()]) {
-            g2d.drawLine(x + size, 0, x + size, y + size);
+        if (hasWall(Direction.EAST)) {
+            g2d.drawLine(x + size, y, x + size, y + size);
         }
 
-        if (walls[Direction.SOUTH.ordinal()]) {
+        if (hasWall(Direction.SOUTH)) {
             g2d.drawLine(x, y + size, x + size, y + size);
         }
 
-        if (walls[Direction.WEST.ordinal()]) {
+        if (hasWall(Direction.WEST)) {
             g2d.drawLine(x, y, x, y + size);
         }
     }
 
-    public boolean[] getWalls() {
+    public int getWalls() {
         return walls;
     }
 
+    public void setWalls(int walls) {
+        this.walls = walls;
+    }
+
+    public boolean hasWall(Direction direction) {
+        return (walls & direction.bit()) != 0;
+    }
+
     public Item getItem() {
         return item;
     }
 
     public void setItem(Item item) {
         this.item = item;
-        this.item.setX(x + 2);
-        this.item.setY(y + 2);
-        this.item.setSize(size - 4);
+        if (item != null) {
+            item.setX(x + 2);
+            item.setY(y + 2);
+            item.setSize(size - 4);
+        }
     }
 }
 
-class Board implements Serializable {
+class IntList implements Serializable {
 
-    public static final int SIZE = 32;
-    public static final int CELL_SIZE = 20;
+    private int[] values;
+    private int size;
 
-    private Cell[][] cells;
-    private EntranceCell entranceCell;
-    private ExitCell exitCell;
+    public IntList() {
+        this(16);
+    }
 
-    public Board() {
-        initBoard();
-        initItems();
-        genPath();
+    public IntList(int capacity) {
+        values = new int[Math.max(capacity, 1)];
     }
 
-    public void draw(Graphics2D g2d, ImageObserver observer) {
-        for (int i = 0; i < SIZE; i++) {
-            for (int j = 0; j < SIZE; j++) {
-                cells[i][j].draw(g2d, observer);
-            }
+    public void add(int value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
         }
+        values[size++] = value;
     }
 
-    private void initBoard() {
-        cells = new Cell[SIZE][SIZE];
-        Color color = new Color(201, 72, 104);
+    public int get(int i) {
+        return values[i];
+    }
 
-        for (int i = 0; i < SIZE; i++) {
-            for (int j = 0; j < SIZE; j++) {
-                BoardCell cell = new BoardCell(i * CELL_SIZE, j * CELL_SIZE, CELL_SIZE, Color.PINK, "", null, color);
-                cells[i][j] = cell;
-            }
-        }
+    public int size() {
+        return size;
+    }
 
-        for (int i = 0; i < SIZE; i++) {
-            cells[0][i] = new WallCell(0, i * CELL_SIZE, CELL_SIZE, color, "");
-            cells[SIZE - 1][i] = new WallCell((SIZE - 1) * CELL_SIZE, i * CELL_SIZE, CELL_SIZE, color, "");
-            cells[i][0] = new WallCell(i * CELL_SIZE, 0, CELL_SIZE, color, "");
-            cells[i][SIZE - 1] = new WallCell(i * CELL_SIZE, (SIZE - 1) * CELL_SIZE, CELL_SIZE, color, "");
-        }
+    public boolean isEmpty() {
+        return size == 0;
+    }
 
-        Random random = new Random();
-        int dir = random.nextInt(4);
-        int value = random.nextInt(SIZE - 2) + 1;
-        if (dir == Direction.NORTH.ordinal()) {
-            entranceCell = new EntranceCell(value * CELL_SIZE, 0, CELL_SIZE, Color.GREEN, null);
-            cells[value][0] = entranceCell;
-        } else if (dir == Direction.EAST.ordinal()) {
-            entranceCell = new EntranceCell((SIZE - 1) * CELL_SIZE, value * CELL_SIZE, CELL_SIZE, Color.GREEN, null);
-            cells[SIZE - 1][value] = entranceCell;
-        } else if (dir == Direction.SOUTH.ordinal()) {
-            entranceCell = new EntranceCell(value * CELL_SIZE, (SIZE - 1) * CELL_SIZE, CELL_SIZE, Color.GREEN, null);
-            cells[value][SIZE - 1] = entranceCell;
-        } else {
-            entranceCell = new EntranceCell(0, value * CELL_SIZE, CELL_SIZE, Color.GREEN, null);
-            cells[0][value] = entranceCell;
-        }
+    public void clear() {
+        size = 0;
+    }
 
-        int dirExit;
-        do {
-            dirExit = random.nextInt(4);
-        } while (dirExit == dir);
+    // Drops every value from the given position on.
+    public void truncate(int size) {
+        this.size = Math.min(this.size, size);
+    }
 
-        int valueExit = random.nextInt(SIZE - 2) + 1;
-        if (dirExit == Direction.NORTH.ordinal()) {
-            exitCell = new ExitCell(valueExit * CELL_SIZE, 0, CELL_SIZE, Color.RED, null);
-            cells[valueExit][0] = exitCell;
-        } else if (dirExit == Direction.EAST.ordinal()) {
-            exitCell = new ExitCell((SIZE - 1) * CELL_SIZE, valueExit * CELL_SIZE, CELL_SIZE, Color.RED, null);
-            cells[SIZE - 1][valueExit] = exitCell;
-        } else if (dirExit == Direction.SOUTH.ordinal()) {
-            exitCell = new ExitCell(valueExit * CELL_SIZE, (SIZE - 1) * CELL_SIZE, CELL_SIZE, Color.RED, null);
-            cells[valueExit][SIZE - 1] = exitCell;
-        } else {
-            exitCell = new ExitCell(0, valueExit * CELL_SIZE, CELL_SIZE, Color.RED, null);
-            cells[0][valueExit] = exitCell;
-        }
+    public int[] toArray() {
+        return Arrays.copyOf(values, size);
     }
+}
 
-    private void initItems() {
-        LinkedList<CircleObstacle> circleObstacles = new LinkedList<>();
-        LinkedList<DiamondObstacle> diamondObstacles = new LinkedList<>();
-        LinkedList<CircleReward> circleRewards = new LinkedList<>();
-        LinkedList<DiamondReward> diamondRewards = new LinkedList<>();
-        LinkedList<HeartReward> heartRewards = new LinkedList<>();
-        for (int i = 0; i < 20; i++) {
-            circleObstacles.add(new CircleObstacle(0, 0, CELL_SIZE, Color.YELLOW, null));
-            diamondObstacles.add(new DiamondObstacle(0, 0, CELL_SIZE, Color.decode("#9C27B0"), null));
-            circleRewards.add(new CircleReward(0, 0, CELL_SIZE, Color.CYAN, null));
-            diamondRewards.add(new DiamondReward(0, 0, CELL_SIZE, Color.BLUE, null));
-            heartRewards.add(new HeartReward(0, 0, CELL_SIZE, Color.RED, null));
-        }
+class TaskProgress {
 
-        Random random = new Random();
+    public static final TaskProgress NONE = new TaskProgress();
 
-        while (!circleObstacles.isEmpty()) {
-            int x = random.nextInt(SIZE - 2) + 1;
-            int y = random.nextInt(SIZE - 2) + 1;
-            if (((BoardCell) cells[x][y]).getItem() == null) {
-                CircleObstacle item = circleObstacles.remove();
-                ((BoardCell) cells[x][y]).setItem(item);
-            }
-        }
+    private int percent = -1;
 
-        while (!diamondObstacles.isEmpty()) {
-            int x = random.nextInt(SIZE - 2) + 1;
-            int y = random.nextInt(SIZE - 2) + 1;
-            if (((BoardCell) cells[x][y]).getItem() == null) {
-                DiamondObstacle item = diamondObstacles.remove();
-                ((BoardCell) cells[x][y]).setItem(item);
-            }
+    // Reports progress and aborts with CancellationException once the running thread has been interrupted.
+    public final void update(long done, long total) {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new CancellationException();
         }
 
-        while (!circleRewards.isEmpty()) {
-            int x = random.nextInt(SIZE - 2) + 1;
-            int y = random.nextInt(SIZE - 2) + 1;
-            if (((BoardCell) cells[x][y]).getItem() == null) {
-                CircleReward item = circleRewards.remove();
-                ((BoardCell) cells[x][y]).setItem(item);
-            }
+        int value = total <= 0 ? 100 : (int) Math.min(100, done * 100 / total);
+        if (value != percent) {
+            percent = value;
+            onProgress(value);
         }
+    }
 
-        while (!diamondRewards.isEmpty()) {
-            int x = random.nextInt(SIZE - 2) + 1;
-            int y = random.nextInt(SIZE - 2) + 1;
-            if (((BoardCell) cells[x][y]).getItem() == null) {
-                DiamondReward item = diamondRewards.remove();
-                ((BoardCell) cells[x][y]).setItem(item);
-            }
-        }
+    protected void onProgress(int percent) {
+    }
+}
+
+// Primitive int-to-int open addressing map; keys must be non-negative.
+class IntIntMap {
+
+    private static final int EMPTY = -1;
+
+    private int[] keys;
+    private int[] values;
+    private int size;
+    private int mask;
 
-        while (!heartRewards.isEmpty()) {
-            int x = random.nextInt(SIZE - 2) + 1;
-            int y = random.nextInt(SIZE - 2) + 1;
-            if (((BoardCell) cells[x][y]).getItem() == null) {
-                HeartReward item = heartRewards.remove();
-                ((BoardCell) cells[x][y]).setItem(item);
+    public IntIntMap(int expected) {
+        int capacity = Integer.highestOneBit(Math.max(4, expected) * 2 - 1) << 1;
+        keys = new int[capacity];
+        values = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+        mask = capacity - 1;
+    }
+
+    public int get(int key, int missing) {
+        for (int slot = mix(key) & mask; ; slot = (slot + 1) & mask) {
+            int k = keys[slot];
+            if (k == key) {
+                return values[slot];
+            }
+            if (k == EMPTY) {
+                return missing;
             }
         }
     }
 
-    public void genPath() {
-        boolean[][] visited = new boolean[SIZE][SIZE];
-        for (int i = 0; i < SIZE; i++) {
-            for (int j = 0; j < SIZE; j++) {
-                visited[i][j] = false;
+    public void put(int key, int value) {
+        for (int slot = mix(key) & mask; ; slot = (slot + 1) & mask) {
+            int k = keys[slot];
+            if (k == key) {
+                values[slot] = value;
+                return;
+            }
+            if (k == EMPTY) {
+                keys[slot] = key;
+                values[slot] = value;
+                if (++size * 2 > keys.length) {
+                    grow();
+                }
+                return;
             }
         }
+    }
 
-        Random random = new Random();
-        Stack<Cell> stack = new Stack<>();
-        int xStart = entranceCell.x / CELL_SIZE;
-        int yStart = entranceCell.y / CELL_SIZE;
-        if (xStart == 0) {
-            xStart = 1;
-        } else if (xStart == SIZE - 1) {
-            xStart = SIZE - 2;
-        } else if (yStart == 0) {
-            yStart = 1;
-        } else if (yStart == SIZE - 1) {
-            yStart = SIZE - 2;
+    private void grow() {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new int[oldKeys.length * 2];
+        values = new int[oldKeys.length * 2];
+        Arrays.fill(keys, EMPTY);
+        mask = keys.length - 1;
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                put(oldKeys[i], oldValues[i]);
+            }
         }
+    }
 
-        stack.push(cells[xStart][yStart]);
-        visited[xStart][yStart] = true;
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
 
-        while (!stack.empty()) {
-            BoardCell cur = (BoardCell) stack.pop();
-            ArrayList<Cell> neighbours = new ArrayList<>(4);
+// How many items of each type a board gets, as absolute counts or as fractions of the interior cells.
+final class ItemTable implements Serializable {
 
-            // North
-            int x = cur.x / CELL_SIZE;
-            int y = cur.y / CELL_SIZE - 1;
-            if (x > 0 && x < SIZE - 1 && y > 0 && y < SIZE - 1 && !visited[x][y]) {
-                neighbours.add(cells[x][y]);
-                cur.getWalls()[Direction.NORTH.ordinal()] = false;
-                ((BoardCell) cells[x][y]).getWalls()[Direction.SOUTH.ordinal()] = false;
-            }
+    public static final ItemTable DEFAULT = ofCounts(20, 20, 20, 20, 20);
 
-            // South
-            x = cur.x / CELL_SIZE;
-            y = cur.y / CELL_SIZE + 1;
-            if (x > 0 && x < SIZE - 1 && y > 0 && y < SIZE - 1 && !visited[x][y]) {
-                neighbours.add(cells[x][y]);
-                cur.getWalls()[Direction.SOUTH.ordinal()] = false;
-                ((BoardCell) cells[x][y]).getWalls()[Direction.NORTH.ordinal()] = false;
-            }
+    private final int[] counts;
+    private final double[] densities;
 
-            // West
-            x = cur.x / CELL_SIZE - 1;
-            y = cur.y / CELL_SIZE;
-            if (x > 0 && x < SIZE - 1 && y > 0 && y < SIZE - 1 && !visited[x][y]) {
-                neighbours.add(cells[x][y]);
-                cur.getWalls()[Direction.WEST.ordinal()] = false;
-                ((BoardCell) cells[x][y]).getWalls()[Direction.EAST.ordinal()] = false;
-            }
+    private ItemTable(int[] counts, double[] densities) {
+        this.counts = counts;
+        this.densities = densities;
+    }
 
-            // East
-            x = cur.x / CELL_SIZE + 1;
-            y = cur.y / CELL_SIZE;
-            if (x > 0 && x < SIZE - 1 && y > 0 && y < SIZE - 1 && !visited[x][y]) {
-                neighbours.add(cells[x][y]);
-                cur.getWalls()[Direction.EAST.ordinal()] = false;
-                ((BoardCell) cells[x][y]).getWalls()[Direction.WEST.ordinal()] = false;
+    // One value per ItemType after NONE, in declaration order.
+    public static ItemTable ofCounts(int... perType) {
+        checkLength(perType.length);
+        int[] counts = new int[ItemType.VALUES.length];
+        for (int i = 0; i < perType.length; i++) {
+            if (perType[i] < 0) {
+                throw new IllegalArgumentException("Negative item count: " + perType[i]);
             }
+            counts[i + 1] = perType[i];
+        }
+        return new ItemTable(counts, null);
+    }
 
-            while (!neighbours.isEmpty()) {
-                Cell neighbour = neighbours.remove(random.nextInt(neighbours.size()));
-                stack.push(neighbour);
-                visited[neighbour.x / CELL_SIZE][neighbour.y / CELL_SIZE] = true;
+    public static ItemTable ofDensities(double... perType) {
+        checkLength(perType.length);
+        double[] densities = new double[ItemType.VALUES.length];
+        double total = 0;
+        for (int i = 0; i < perType.length; i++) {
+            if (!(perType[i] >= 0)) {
+                throw new IllegalArgumentException("Invalid item density: " + perType[i]);
             }
+            densities[i + 1] = perType[i];
+            total += perType[i];
         }
+        if (total > 1 + 1e-9) {
+            throw new IllegalArgumentException("Item densities add up to more than 1: " + total);
+        }
+        return new ItemTable(null, densities);
     }
-}
 
-class BoardPanel extends JPanel {
+    private static void checkLength(int length) {
+        if (length != ItemType.VALUES.length - 1) {
+            throw new IllegalArgumentException("Expected " + (ItemType.VALUES.length - 1) + " item types, got " + length);
+        }
+    }
 
-    private Board board;
+    // Counts per ItemType ordinal for a board with this many interior cells; types are filled in order until full.
+    public int[] resolve(int interior) {
+        int[] resolved = new int[ItemType.VALUES.length];
+        int free = interior;
+        for (int type = 1; type < resolved.length; type++) {
+            int wanted = counts != null ? counts[type] : (int) Math.round(densities[type] * interior);
+            resolved[type] = Math.min(wanted, free);
+            free -= resolved[type];
+        }
+        return resolved;
+    }
+}
 
-    public BoardPanel() {
-        board = new Board();
+// Places items on distinct interior cells without rejection sampling.
+final class ItemPlacer {
 
-        this.setPreferredSize(new Dimension(Board.SIZE * Board.CELL_SIZE + 1, Board.SIZE * Board.CELL_SIZE + 40));
-        this.setBackground(Color.LIGHT_GRAY);
+    private ItemPlacer() {
     }
 
-    @Override
-    public void paint(Graphics g) {
-        super.paint(g);
+    // Sparse Fisher-Yates for up to half the interior (O(items) time and memory), selection sampling above that.
+    public static void place(BoardGrid grid, int[] counts, SplittableRandom random) {
+        int innerWidth = grid.getWidth() - 2;
+        int interior = innerWidth * (grid.getHeight() - 2);
+        int[] remaining = counts.clone();
+        int total = 0;
+        for (int count : counts) {
+            total += count;
+        }
+        if (total > interior) {
+            throw new IllegalArgumentException("More items than interior cells: " + total);
+        }
 
-        Graphics2D g2d = (Graphics2D) g;
-        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-        board.draw(g2d, this);
+        if (total <= interior / 2) {
+            IntIntMap swaps = new IntIntMap(total * 2);
+            for (int i = 0; i < total; i++) {
+                int j = i + random.nextInt(interior - i);
+                int picked = swaps.get(j, j);
+                swaps.put(j, swaps.get(i, i));
+                put(grid, innerWidth, picked, remaining, total - i, random);
+            }
+        } else {
+            Sequence sequence = new Sequence(counts, interior, random);
+            for (int cell = 0; cell < interior; cell++) {
+                int type = sequence.next();
+                if (type != ItemType.NONE.ordinal()) {
+                    grid.setItem(grid.index(cell % innerWidth + 1, cell / innerWidth + 1), type);
+                }
+            }
+        }
     }
 
-    public void onDesignClicked() {
-        board = new Board();
-        repaint();
+    private static void put(BoardGrid grid, int innerWidth, int cell, int[] remaining, int left,
+            SplittableRandom random) {
+        grid.setItem(grid.index(cell % innerWidth + 1, cell / innerWidth + 1), drawType(remaining, left, random));
     }
 
-    public void onSaveClicked() {
-        try (ObjectOutputStream oos = new ObjectOutputStream(Files.newOutputStream(Paths.get("board.data")))) {
-            oos.writeObject(board);
-        } catch (IOException e) {
-            e.printStackTrace();
+    // The type is drawn without replacement from the counts still to place, so cell order never biases types.
+    private static int drawType(int[] remaining, int left, SplittableRandom random) {
+        int pick = random.nextInt(left);
+        int type = 1;
+        while (pick >= remaining[type]) {
+            pick -= remaining[type];
+            type++;
         }
+        remaining[type]--;
+        return type;
     }
 
-    public void onReloadClicked() {
-        try (ObjectInputStream ois = new ObjectInputStream(Files.newInputStream(Paths.get("board.data")))) {
-            board = (Board) ois.readObject();
-            this.repaint();
-        } catch (IOException | ClassNotFoundException e) {
-            e.printStackTrace();
+    // Selection sampling over the interior cells in row-major order, in constant memory.
+    static final class Sequence {
+
+        private final int[] remaining;
+        private final SplittableRandom random;
+        private int cellsLeft;
+        private int itemsLeft;
+
+        Sequence(int[] counts, int interior, SplittableRandom random) {
+            this.remaining = counts.clone();
+            this.random = random;
+            this.cellsLeft = interior;
+            for (int count : counts) {
+                itemsLeft += count;
+            }
+            if (itemsLeft > interior) {
+                throw new IllegalArgumentException("More items than interior cells: " + itemsLeft);
+            }
+        }
+
+        // The item type for the next interior cell, or NONE.
+        int next() {
+            int type = ItemType.NONE.ordinal();
+            if (itemsLeft > 0 && random.nextInt(cellsLeft) < itemsLeft) {
+                type = drawType(remaining, itemsLeft, random);
+                itemsLeft--;
+            }
+            cellsLeft--;
+            return type;
         }
     }
 }
 
-class BoardFrame extends JFrame {
+interface BoardListener {
 
-    public BoardFrame() {
-        BoardPanel panel = new BoardPanel();
+    void cellChanged(Board board, int index);
+}
 
-        this.add(panel);
+class BoardGrid implements Serializable {
+
+    public static final int ALL_WALLS = 0x0F;
+    // A spare bit above the wall mask.
+    private static final int MARK = 0x10;
+
+    private final int width;
+    private final int height;
+    private final byte[] walls;
+    // Low nibble is the CellKind ordinal, high nibble the ItemType ordinal.
+    private final byte[] cells;
+
+    public BoardGrid(int width, int height) {
+        this(width, height, new byte[width * height], new byte[width * height]);
+    }
+
+    // Subclasses that keep their cells elsewhere pass null arrays and override every accessor.
+    BoardGrid(int width, int height, byte[] walls, byte[] cells) {
+        this.width = width;
+        this.height = height;
+        this.walls = walls;
+        this.cells = cells;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int size() {
+        return width * height;
+    }
+
+    public int index(int x, int y) {
+        return y * width + x;
+    }
+
+    public int xOf(int index) {
+        return index % width;
+    }
+
+    public int yOf(int index) {
+        return index / width;
+    }
+
+    public void fill(int mask, CellKind kind) {
+        Arrays.fill(walls, (byte) mask);
+        Arrays.fill(cells, (byte) kind.ordinal());
+    }
+
+    public int getWalls(int index) {
+        return walls[index] & ALL_WALLS;
+    }
+
+    public void setWalls(int index, int mask) {
+        walls[index] = (byte) mask;
+    }
+
+    public boolean hasWall(int index, Direction direction) {
+        return (walls[index] & direction.bit()) != 0;
+    }
+
+    // Removes the wall on both sides of the shared edge.
+    public void openWall(int index, Direction direction) {
+        int neighbour = index + direction.getDx() + direction.getDy() * width;
+        walls[index] &= (byte) ~direction.bit();
+        walls[neighbour] &= (byte) ~direction.opposite().bit();
+    }
+
+    public int getKind(int index) {
+        return cells[index] & 0x0F;
+    }
+
+    public void setKind(int index, CellKind kind) {
+        cells[index] = (byte) ((cells[index] & 0xF0) | kind.ordinal());
+    }
+
+    public int getItem(int index) {
+        return (cells[index] >> 4) & 0x0F;
+    }
+
+    public void setItem(int index, int item) {
+        cells[index] = (byte) ((cells[index] & 0x0F) | (item << 4));
+    }
+
+    // Storage form of a cell: walls in the low nibble, item in the high nibble.
+    public int getPacked(int index) {
+        return (walls[index] & 0x0F) | (cells[index] & 0xF0);
+    }
+
+    public void setPacked(int index, int packed) {
+        walls[index] = (byte) (packed & 0x0F);
+        cells[index] = (byte) ((cells[index] & 0x0F) | (packed & 0xF0));
+    }
+
+    // One bit per cell for algorithms that would otherwise need memory per cell. It is not saved, and
+    // whoever sets it clears it again.
+    public boolean isMarked(int index) {
+        return (walls[index] & MARK) != 0;
+    }
+
+    public void setMarked(int index, boolean marked) {
+        walls[index] = (byte) (marked ? walls[index] | MARK : walls[index] & ~MARK);
+    }
+
+    public void copyFrom(BoardGrid other) {
+        if (walls == null || other.walls == null) {
+            byte[] chunk = new byte[Math.min(size(), 1 << 16)];
+            for (int from = 0; from < size(); from += chunk.length) {
+                int count = Math.min(chunk.length, size() - from);
+                other.pack(from, chunk, 0, count);
+                unpack(from, chunk, 0, count);
+            }
+            return;
+        }
+        System.arraycopy(other.walls, 0, walls, 0, walls.length);
+        System.arraycopy(other.cells, 0, cells, 0, cells.length);
+    }
+
+    public void pack(int from, byte[] dst, int offset, int count) {
+        for (int i = 0; i < count; i++) {
+            dst[offset + i] = (byte) ((walls[from + i] & 0x0F) | (cells[from + i] & 0xF0));
+        }
+    }
+
+    public void unpack(int from, byte[] src, int offset, int count) {
+        for (int i = 0; i < count; i++) {
+            byte packed = src[offset + i];
+            walls[from + i] = (byte) (packed & 0x0F);
+            cells[from + i] = (byte) ((cells[from + i] & 0x0F) | (packed & 0xF0));
+        }
+    }
+}
+
+// Cells kept in a board file mapped into memory instead of on the heap, one byte each in the file's
+// packed form: walls in the low nibble and the item above them. Saving the board to its own file is
+// then a flush. Kinds are not stored: the border is wall apart from the two doors. Bit 7, which no
+// item uses, is the mark bit. The file is mapped in segments, as one mapping is limited to 2 GB.
+final class MappedBoardGrid extends BoardGrid {
+
+    private static final int SEGMENT_SHIFT = 30;
+    private static final int SEGMENT_MASK = (1 << SEGMENT_SHIFT) - 1;
+    private static final int MARK = 0x80;
+
+    private final Path path;
+    private final long offset;
+    private final MappedByteBuffer[] segments;
+    private int entrance = -1;
+    private int exit = -1;
+
+    // Maps width * height bytes of the file from offset on; the file grows to fit when writable.
+    MappedBoardGrid(Path path, FileChannel channel, long offset, int width, int height, FileChannel.MapMode mode)
+            throws IOException {
+        super(width, height, null, null);
+        this.path = path;
+        this.offset = offset;
+        long size = (long) width * height;
+        segments = new MappedByteBuffer[(int) ((size + SEGMENT_MASK) >>> SEGMENT_SHIFT)];
+        for (int i = 0; i < segments.length; i++) {
+            long from = (long) i << SEGMENT_SHIFT;
+            segments[i] = channel.map(mode, offset + from, Math.min(size - from, 1L << SEGMENT_SHIFT));
+        }
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    private byte get(int index) {
+        return segments[index >>> SEGMENT_SHIFT].get(index & SEGMENT_MASK);
+    }
+
+    private void put(int index, int value) {
+        segments[index >>> SEGMENT_SHIFT].put(index & SEGMENT_MASK, (byte) value);
+    }
+
+    @Override
+    public void fill(int mask, CellKind kind) {
+        byte[] chunk = new byte[Math.min(size(), 1 << 16)];
+        Arrays.fill(chunk, (byte) mask);
+        for (int from = 0; from < size(); from += chunk.length) {
+            unpack(from, chunk, 0, Math.min(chunk.length, size() - from));
+        }
+    }
+
+    @Override
+    public int getWalls(int index) {
+        return get(index) & ALL_WALLS;
+    }
+
+    @Override
+    public void setWalls(int index, int mask) {
+        put(index, (get(index) & ~ALL_WALLS) | (mask & ALL_WALLS));
+    }
+
+    @Override
+    public boolean hasWall(int index, Direction direction) {
+        return (get(index) & direction.bit()) != 0;
+    }
+
+    @Override
+    public void openWall(int index, Direction direction) {
+        int neighbour = index + direction.getDx() + direction.getDy() * getWidth();
+        put(index, get(index) & ~direction.bit());
+        put(neighbour, get(neighbour) & ~direction.opposite().bit());
+    }
+
+    @Override
+    public int getKind(int index) {
+        int x = xOf(index);
+        int y = yOf(index);
+        if (x > 0 && y > 0 && x < getWidth() - 1 && y < getHeight() - 1) {
+            return CellKind.BOARD.ordinal();
+        }
+        if (index == entrance) {
+            return CellKind.ENTRANCE.ordinal();
+        }
+        return index == exit ? CellKind.EXIT.ordinal() : CellKind.WALL.ordinal();
+    }
+
+    // Only the doors can be placed; every other kind follows from the border.
+    @Override
+    public void setKind(int index, CellKind kind) {
+        if (kind == CellKind.ENTRANCE) {
+            entrance = index;
+        } else if (kind == CellKind.EXIT) {
+            exit = index;
+        } else if (getKind(index) != kind.ordinal()) {
+            throw new UnsupportedOperationException("Mapped boards derive cell kinds from the border");
+        }
+    }
+
+    @Override
+    public int getItem(int index) {
+        return (get(index) >> 4) & 0x07;
+    }
+
+    @Override
+    public void setItem(int index, int item) {
+        put(index, (get(index) & ~0x70) | (item << 4));
+    }
+
+    @Override
+    public int getPacked(int index) {
+        return get(index) & ~MARK & 0xFF;
+    }
+
+    @Override
+    public void setPacked(int index, int packed) {
+        put(index, (get(index) & MARK) | (packed & ~MARK & 0xFF));
+    }
+
+    @Override
+    public boolean isMarked(int index) {
+        return (get(index) & MARK) != 0;
+    }
+
+    @Override
+    public void setMarked(int index, boolean marked) {
+        put(index, marked ? get(index) | MARK : get(index) & ~MARK);
+    }
+
+    @Override
+    public void pack(int from, byte[] dst, int offset, int count) {
+        while (count > 0) {
+            int at = from & SEGMENT_MASK;
+            int n = Math.min(count, SEGMENT_MASK + 1 - at);
+            segments[from >>> SEGMENT_SHIFT].get(at, dst, offset, n);
+            for (int i = offset; i < offset + n; i++) {
+                dst[i] &= (byte) ~MARK;
+            }
+            from += n;
+            offset += n;
+            count -= n;
+        }
+    }
+
+    // Overwrites whole cells, marks included.
+    @Override
+    public void unpack(int from, byte[] src, int offset, int count) {
+        while (count > 0) {
+            int at = from & SEGMENT_MASK;
+            int n = Math.min(count, SEGMENT_MASK + 1 - at);
+            segments[from >>> SEGMENT_SHIFT].put(at, src, offset, n);
+            from += n;
+            offset += n;
+            count -= n;
+        }
+    }
+
+    // Writes modified pages back to the file.
+    public void force() {
+        for (MappedByteBuffer segment : segments) {
+            segment.force();
+        }
+    }
+
+    // Runs the file's payload through the checksum straight from the mapping, without a copy.
+    public void checksum(CRC32 crc, TaskProgress progress) {
+        for (int i = 0; i < segments.length; i++) {
+            progress.update(i, segments.length);
+            ByteBuffer segment = segments[i].duplicate();
+            segment.clear();
+            crc.update(segment);
+        }
+    }
+}
+
+class Board implements Serializable {
+
+    public static final int DEFAULT_SIZE = 32;
+    public static final int DEFAULT_CELL_SIZE = 20;
+
+    static final Color WALL_COLOR = new Color(201, 72, 104);
+
+    private final int width;
+    private final int height;
+    private final int cellSize;
+    private final long seed;
+    // Resolved item counts per ItemType ordinal; null when the board was loaded rather than generated.
+    private final int[] itemCounts;
+    private final MazeAlgorithm algorithm;
+    private final BoardGrid grid;
+    private int entrance;
+    private int exit;
+    // True while the board equals what its seed generates plus the recorded edits.
+    private final boolean reproducible;
+    // Pairs of (cell index, packed cell) for every change made after generation, in order.
+    private final IntList edits = new IntList();
+
+    private transient long initNanos;
+    private transient long itemNanos;
+    private transient long mazeNanos;
+    private transient long fieldNanos;
+    private transient volatile DistanceField distances;
+    private transient BoardPainter painter;
+    private transient int[] overviewPalette;
+    private transient List<BoardListener> listeners;
+
+    public Board() {
+        this(DEFAULT_SIZE, DEFAULT_SIZE, DEFAULT_CELL_SIZE);
+    }
+
+    public Board(int width, int height, int cellSize) {
+        this(width, height, cellSize, TaskProgress.NONE);
+    }
+
+    public Board(int width, int height, int cellSize, long seed) {
+        this(width, height, cellSize, seed, ItemTable.DEFAULT, MazeAlgorithm.DFS, TaskProgress.NONE);
+    }
+
+    public Board(int width, int height, int cellSize, TaskProgress progress) {
+        this(width, height, cellSize, ThreadLocalRandom.current().nextLong(), ItemTable.DEFAULT, MazeAlgorithm.DFS,
+                progress);
+    }
+
+    public Board(int width, int height, int cellSize, long seed, TaskProgress progress) {
+        this(width, height, cellSize, seed, ItemTable.DEFAULT, MazeAlgorithm.DFS, progress);
+    }
+
+    // Each phase draws from its own split of the seed, so changing one phase never shifts the others.
+    public Board(int width, int height, int cellSize, long seed, ItemTable items, MazeAlgorithm algorithm,
+            TaskProgress progress) {
+        checkDimensions(width, height, cellSize);
+
+        this.width = width;
+        this.height = height;
+        this.cellSize = cellSize;
+        this.seed = seed;
+        this.itemCounts = items.resolve((width - 2) * (height - 2));
+        this.algorithm = algorithm;
+        this.reproducible = true;
+        this.grid = new BoardGrid(width, height);
+
+        SplittableRandom random = new SplittableRandom(seed);
+        SplittableRandom doors = random.split();
+        SplittableRandom itemRandom = random.split();
+        SplittableRandom maze = random.split();
+        long start = System.nanoTime();
+        initBoard(doors);
+        long placed = System.nanoTime();
+        initNanos = placed - start;
+        ItemPlacer.place(grid, itemCounts, itemRandom);
+        itemNanos = System.nanoTime() - placed;
+        genPath(maze, progress);
+        BoardMetrics.INSTANCE.generated(this);
+    }
+
+    // An ungenerated board with closed walls and no items, to be filled in by a loader.
+    Board(int width, int height, int cellSize, long seed, int entrance, int exit) {
+        this(width, height, cellSize, seed, null, null, entrance, exit, false);
+    }
+
+    // A loaded board over cells that already hold its walls and items, such as a mapped board file.
+    Board(int width, int height, int cellSize, long seed, int entrance, int exit, BoardGrid grid) {
+        this(width, height, cellSize, seed, null, null, entrance, exit, false, grid);
+    }
+
+    private Board(int width, int height, int cellSize, long seed, int[] itemCounts, MazeAlgorithm algorithm,
+            int entrance, int exit, boolean reproducible) {
+        this(width, height, cellSize, seed, itemCounts, algorithm, entrance, exit, reproducible, null);
+    }
+
+    // Without a grid, a closed one is allocated on the heap.
+    private Board(int width, int height, int cellSize, long seed, int[] itemCounts, MazeAlgorithm algorithm,
+            int entrance, int exit, boolean reproducible, BoardGrid grid) {
+        checkDimensions(width, height, cellSize);
+
+        this.width = width;
+        this.height = height;
+        this.cellSize = cellSize;
+        this.seed = seed;
+        this.itemCounts = itemCounts;
+        this.algorithm = algorithm;
+        this.reproducible = reproducible;
+        if (grid == null) {
+            this.grid = new BoardGrid(width, height);
+            initCells();
+        } else if (grid.getWidth() != width || grid.getHeight() != height) {
+            throw new IllegalArgumentException("Grid does not match the board size");
+        } else {
+            this.grid = grid;
+        }
+        if (entrance < 0 || exit < 0 || entrance >= this.grid.size() || exit >= this.grid.size()
+                || this.grid.getKind(entrance) != CellKind.WALL.ordinal()
+                || this.grid.getKind(exit) != CellKind.WALL.ordinal() || entrance == exit) {
+            throw new IllegalArgumentException("Entrance and exit must be distinct border cells");
+        }
+        this.entrance = entrance;
+        this.exit = exit;
+        this.grid.setKind(entrance, CellKind.ENTRANCE);
+        this.grid.setKind(exit, CellKind.EXIT);
+    }
+
+    private static void checkDimensions(int width, int height, int cellSize) {
+        if (width < 3 || height < 3 || cellSize < 1) {
+            throw new IllegalArgumentException("Board must be at least 3x3 cells: " + width + "x" + height);
+        }
+        if ((long) width * height > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Board too large: " + width + "x" + height);
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getCellSize() {
+        return cellSize;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public boolean isReproducible() {
+        return reproducible;
+    }
+
+    // The algorithm that carved this board, or null for boards loaded from a full file.
+    public MazeAlgorithm getMazeAlgorithm() {
+        return algorithm;
+    }
+
+    // Construction phase timings: borders and doors, item placement, and the last genPath() carve.
+    public long getInitNanos() {
+        return initNanos;
+    }
+
+    public long getItemNanos() {
+        return itemNanos;
+    }
+
+    public long getMazeNanos() {
+        return mazeNanos;
+    }
+
+    public long getFieldNanos() {
+        return fieldNanos;
+    }
+
+    // Item counts per ItemType ordinal, or null for boards loaded from a full file.
+    public int[] getItemCounts() {
+        return itemCounts == null ? null : itemCounts.clone();
+    }
+
+    // The table that regenerates this board's items, falling back to the default for loaded boards.
+    public ItemTable getItemTable() {
+        if (itemCounts == null) {
+            return ItemTable.DEFAULT;
+        }
+        return ItemTable.ofCounts(Arrays.copyOfRange(itemCounts, 1, itemCounts.length));
+    }
+
+    public int getEditCount() {
+        return edits.size() / 2;
+    }
+
+    public int getEditIndex(int edit) {
+        return edits.get(edit * 2);
+    }
+
+    public int getEditValue(int edit) {
+        return edits.get(edit * 2 + 1);
+    }
+
+    // Sets a cell's walls and item from its packed form and records the change.
+    public void applyEdit(int index, int packed) {
+        int changed = (grid.getWalls(index) ^ packed) & BoardGrid.ALL_WALLS;
+        grid.setPacked(index, packed);
+        recordEdit(index);
+        DistanceField field = distances;
+        if (field != null) {
+            for (Direction direction : Direction.VALUES) {
+                if ((changed & direction.bit()) != 0) {
+                    field.edgeChanged(index, direction);
+                }
+            }
+        }
+        fireCellChanged(index);
+    }
+
+    private void recordEdit(int index) {
+        edits.add(index);
+        edits.add(grid.getPacked(index));
+    }
+
+    public Board copy() {
+        Board copy = new Board(width, height, cellSize, seed, itemCounts, algorithm, entrance, exit, reproducible);
+        copy.grid.copyFrom(grid);
+        for (int i = 0; i < edits.size(); i++) {
+            copy.edits.add(edits.get(i));
+        }
+        DistanceField field = distances;
+        if (field != null) {
+            copy.distances = field.copy(copy.grid);
+        }
+        return copy;
+    }
+
+    public BoardGrid getGrid() {
+        return grid;
+    }
+
+    // Moves from a cell to the exit, or -1 if the exit cannot be reached from it.
+    public int getExitDistance(int index) {
+        return distanceField().distance(index);
+    }
+
+    // Direction ordinal of the next step towards the exit, or -1 at the exit and where it is unreachable.
+    public int getExitDirection(int index) {
+        return distanceField().direction(index);
+    }
+
+    // Built by genPath(); loaded boards build it on first use. Items do not block movement, so only
+    // wall changes update it.
+    DistanceField distanceField() {
+        DistanceField field = distances;
+        if (field == null) {
+            synchronized (this) {
+                field = distances;
+                if (field == null) {
+                    field = new DistanceField(grid, innerIndex(entrance), entrance, innerIndex(exit), exit);
+                    distances = field;
+                }
+            }
+        }
+        return field;
+    }
+
+    public int getEntrance() {
+        return entrance;
+    }
+
+    public int getExit() {
+        return exit;
+    }
+
+    public synchronized void addBoardListener(BoardListener listener) {
+        if (listeners == null) {
+            listeners = new ArrayList<>();
+        }
+        listeners.add(listener);
+    }
+
+    public synchronized void removeBoardListener(BoardListener listener) {
+        if (listeners != null) {
+            listeners.remove(listener);
+        }
+    }
+
+    private void fireCellChanged(int index) {
+        BoardListener[] targets;
+        synchronized (this) {
+            if (listeners == null || listeners.isEmpty()) {
+                return;
+            }
+            targets = listeners.toArray(new BoardListener[0]);
+        }
+        for (BoardListener listener : targets) {
+            listener.cellChanged(this, index);
+        }
+    }
+
+    public void setItem(int index, ItemType type) {
+        grid.setItem(index, type.ordinal());
+        recordEdit(index);
+        fireCellChanged(index);
+    }
+
+    public void setWall(int index, Direction direction, boolean closed) {
+        int neighbour = index + direction.getDx() + direction.getDy() * width;
+        if (closed) {
+            grid.setWalls(index, grid.getWalls(index) | direction.bit());
+            grid.setWalls(neighbour, grid.getWalls(neighbour) | direction.opposite().bit());
+        } else {
+            grid.openWall(index, direction);
+        }
+        recordEdit(index);
+        recordEdit(neighbour);
+        DistanceField field = distances;
+        if (field != null) {
+            field.edgeChanged(index, direction);
+        }
+        fireCellChanged(index);
+        fireCellChanged(neighbour);
+    }
+
+    public void draw(Graphics2D g2d, ImageObserver observer) {
+        painter().draw(g2d, observer);
+    }
+
+    public void drawCells(Graphics2D g2d, ImageObserver observer, int minX, int minY, int maxX, int maxY) {
+        painter().drawCells(g2d, observer, minX, minY, maxX, maxY);
+    }
+
+    public void drawCell(Graphics2D g2d, ImageObserver observer, int x, int y) {
+        painter().drawCell(g2d, observer, x, y);
+    }
+
+    // The board's own painter, for the one thread that paints it on screen.
+    private BoardPainter painter() {
+        if (painter == null) {
+            painter = new BoardPainter(this);
+        }
+        return painter;
+    }
+
+    // A painter with its own flyweights, for drawing this board from another thread.
+    public BoardPainter newPainter() {
+        return new BoardPainter(this);
+    }
+
+    // Single colour summarising a cell, used when cells are too small to draw individually.
+    public int getOverviewRgb(int index) {
+        if (overviewPalette == null) {
+            initOverviewPalette();
+        }
+
+        int kind = grid.getKind(index);
+        if (kind != CellKind.BOARD.ordinal()) {
+            return overviewPalette[kind];
+        }
+        int item = grid.getItem(index);
+        if (item != ItemType.NONE.ordinal()) {
+            return overviewPalette[CellKind.VALUES.length + item];
+        }
+        return overviewPalette[CellKind.VALUES.length + ItemType.VALUES.length + Integer.bitCount(grid.getWalls(index))];
+    }
+
+    private void initOverviewPalette() {
+        BoardPainter views = painter();
+        int[] palette = new int[CellKind.VALUES.length + ItemType.VALUES.length + 5];
+        for (CellKind kind : CellKind.VALUES) {
+            palette[kind.ordinal()] = views.getCellView(kind).getBgColor().getRGB();
+        }
+        for (ItemType type : ItemType.VALUES) {
+            Color color = type == ItemType.NONE ? Color.PINK : views.getItemView(type).getColor();
+            palette[CellKind.VALUES.length + type.ordinal()] = color.getRGB();
+        }
+        Color open = views.getCellView(CellKind.BOARD).getBgColor();
+        for (int walls = 0; walls <= 4; walls++) {
+            float t = walls / 8f;
+            palette[CellKind.VALUES.length + ItemType.VALUES.length + walls] = new Color(
+                    Math.round(open.getRed() + (WALL_COLOR.getRed() - open.getRed()) * t),
+                    Math.round(open.getGreen() + (WALL_COLOR.getGreen() - open.getGreen()) * t),
+                    Math.round(open.getBlue() + (WALL_COLOR.getBlue() - open.getBlue()) * t)).getRGB();
+        }
+        overviewPalette = palette;
+    }
+
+    private void initBoard(SplittableRandom random) {
+        initCells();
+
+        int[] doors = pickDoors(width, height, random);
+        entrance = doors[0];
+        grid.setKind(entrance, CellKind.ENTRANCE);
+        exit = doors[1];
+        grid.setKind(exit, CellKind.EXIT);
+    }
+
+    // Entrance and exit indices on two different sides of the border.
+    static int[] pickDoors(int width, int height, SplittableRandom random) {
+        int dir = random.nextInt(4);
+        int entrance = borderIndex(width, height, dir, random);
+
+        int dirExit;
+        do {
+            dirExit = random.nextInt(4);
+        } while (dirExit == dir);
+
+        return new int[]{entrance, borderIndex(width, height, dirExit, random)};
+    }
+
+    private void initCells() {
+        grid.fill(BoardGrid.ALL_WALLS, CellKind.BOARD);
+        for (int x = 0; x < width; x++) {
+            grid.setKind(grid.index(x, 0), CellKind.WALL);
+            grid.setKind(grid.index(x, height - 1), CellKind.WALL);
+        }
+        for (int y = 1; y < height - 1; y++) {
+            grid.setKind(grid.index(0, y), CellKind.WALL);
+            grid.setKind(grid.index(width - 1, y), CellKind.WALL);
+        }
+    }
+
+    private static int borderIndex(int width, int height, int dir, SplittableRandom random) {
+        if (dir == Direction.NORTH.ordinal()) {
+            return random.nextInt(width - 2) + 1;
+        } else if (dir == Direction.EAST.ordinal()) {
+            return (random.nextInt(height - 2) + 1) * width + width - 1;
+        } else if (dir == Direction.SOUTH.ordinal()) {
+            return (height - 1) * width + random.nextInt(width - 2) + 1;
+        } else {
+            return (random.nextInt(height - 2) + 1) * width;
+        }
+    }
+
+    // The cell inside the border that the entrance opens onto.
+    private int startIndex() {
+        return innerIndex(entrance);
+    }
+
+    // The interior cell next to a door on the border.
+    int innerIndex(int door) {
+        int x = grid.xOf(door);
+        int y = grid.yOf(door);
+        if (x == 0) {
+            x = 1;
+        } else if (x == width - 1) {
+            x = width - 2;
+        } else if (y == 0) {
+            y = 1;
+        } else if (y == height - 1) {
+            y = height - 2;
+        }
+        return grid.index(x, y);
+    }
+
+    // Shortest route plus the best-scoring simple route of at most stepBudget moves, entrance to exit.
+    public BoardSolver.Solution solve(int stepBudget) {
+        return BoardSolver.solve(this, stepBudget);
+    }
+
+    // Difficulty metrics: dead ends, branching, corridor lengths, the solution and item scores.
+    public BoardAnalytics.Report analyze() {
+        return BoardAnalytics.analyze(this);
+    }
+
+    // Carves with the maze's split of the seed, as the constructor does, so a seed file still rebuilds the board.
+    public void genPath() {
+        SplittableRandom random = new SplittableRandom(seed);
+        random.split();
+        random.split();
+        genPath(random.split(), TaskProgress.NONE);
+    }
+
+    public void genPath(SplittableRandom random, TaskProgress progress) {
+        long start = System.nanoTime();
+        MazeAlgorithm carver = algorithm != null ? algorithm : MazeAlgorithm.DFS;
+        carver.getGenerator().generate(grid, startIndex(), random, progress);
+        long carved = System.nanoTime();
+        mazeNanos = carved - start;
+        distances = new DistanceField(grid, innerIndex(entrance), entrance, innerIndex(exit), exit);
+        fieldNanos = System.nanoTime() - carved;
+    }
+}
+
+// Draws a board's cells through flyweights: one Cell and Item per kind, positioned just before each is
+// drawn. The flyweights are mutated while drawing, so every painting thread needs its own painter.
+final class BoardPainter {
+
+    private BoardGrid grid;
+    private final int cellSize;
+    private final Cell[] cellViews;
+    private final Item[] itemViews;
+
+    BoardPainter(Board board) {
+        this(board.getGrid(), board.getCellSize());
+    }
+
+    BoardPainter(BoardGrid grid, int cellSize) {
+        this.grid = grid;
+        this.cellSize = cellSize;
+
+        cellViews = new Cell[CellKind.VALUES.length];
+        cellViews[CellKind.BOARD.ordinal()] = new BoardCell(0, 0, cellSize, Color.PINK, "", null, Board.WALL_COLOR);
+        cellViews[CellKind.WALL.ordinal()] = new WallCell(0, 0, cellSize, Board.WALL_COLOR, "");
+        cellViews[CellKind.ENTRANCE.ordinal()] = new EntranceCell(0, 0, cellSize, Color.GREEN, null);
+        cellViews[CellKind.EXIT.ordinal()] = new ExitCell(0, 0, cellSize, Color.RED, null);
+
+        itemViews = new Item[ItemType.VALUES.length];
+        for (ItemType type : ItemType.VALUES) {
+            itemViews[type.ordinal()] = type.create(cellSize);
+        }
+    }
+
+    public Cell getCellView(CellKind kind) {
+        return cellViews[kind.ordinal()];
+    }
+
+    public Item getItemView(ItemType type) {
+        return itemViews[type.ordinal()];
+    }
+
+    // Lets one painter's flyweights serve many grids, such as the chunks of a ChunkedWorld.
+    void setGrid(BoardGrid grid) {
+        this.grid = grid;
+    }
+
+    // Only cells that intersect the clip are visited; wall lines sit on a cell's far edge, hence the margin.
+    public void draw(Graphics2D g2d, ImageObserver observer) {
+        Rectangle clip = g2d.getClipBounds();
+        if (clip == null) {
+            drawCells(g2d, observer, 0, 0, grid.getWidth() - 1, grid.getHeight() - 1);
+        } else {
+            drawCells(g2d, observer, Math.floorDiv(clip.x - 1, cellSize), Math.floorDiv(clip.y - 1, cellSize),
+                    Math.floorDiv(clip.x + clip.width, cellSize), Math.floorDiv(clip.y + clip.height, cellSize));
+        }
+    }
+
+    public void drawCells(Graphics2D g2d, ImageObserver observer, int minX, int minY, int maxX, int maxY) {
+        // Items blit from an atlas rendered at this Graphics' scale; odd transforms fall back to shapes.
+        double scale = SpriteAtlas.scaleOf(g2d);
+        SpriteAtlas atlas = scale > 0 && cellSize > 4 ? SpriteAtlas.get(cellSize - 4, scale) : null;
+        for (Item item : itemViews) {
+            if (item != null) {
+                item.setAtlas(atlas);
+            }
+        }
+        try {
+            for (int y = Math.max(minY, 0); y <= Math.min(maxY, grid.getHeight() - 1); y++) {
+                for (int x = Math.max(minX, 0); x <= Math.min(maxX, grid.getWidth() - 1); x++) {
+                    drawCell(g2d, observer, x, y);
+                }
+            }
+        } finally {
+            for (Item item : itemViews) {
+                if (item != null) {
+                    item.setAtlas(null);
+                }
+            }
+        }
+    }
+
+    public void drawCell(Graphics2D g2d, ImageObserver observer, int x, int y) {
+        int index = grid.index(x, y);
+        Cell cell = cellViews[grid.getKind(index)];
+        cell.setX(x * cellSize);
+        cell.setY(y * cellSize);
+        if (cell instanceof BoardCell) {
+            BoardCell boardCell = (BoardCell) cell;
+            boardCell.setWalls(grid.getWalls(index));
+            boardCell.setItem(itemViews[grid.getItem(index)]);
+        }
+        cell.draw(g2d, observer);
+    }
+}
+
+// Carves a perfect maze into the interior of a grid whose cells start with every wall closed.
+interface MazeGenerator {
+
+    void generate(BoardGrid grid, int start, SplittableRandom random, TaskProgress progress);
+}
+
+enum MazeAlgorithm {
+
+    DFS(new DfsGenerator()),
+    KRUSKAL(new KruskalGenerator()),
+    WILSON(new WilsonGenerator()),
+    ELLER(new EllerGenerator());
+
+    public static final MazeAlgorithm[] VALUES = values();
+
+    private final MazeGenerator generator;
+
+    MazeAlgorithm(MazeGenerator generator) {
+        this.generator = generator;
+    }
+
+    public MazeGenerator getGenerator() {
+        return generator;
+    }
+
+    // Generates the same board with every algorithm and prints the carving rate of each.
+    public static void compare(int width, int height, long seed, int rounds, PrintStream out) {
+        for (MazeAlgorithm algorithm : VALUES) {
+            long best = Long.MAX_VALUE;
+            for (int i = 0; i < rounds; i++) {
+                Board board = new Board(width, height, Board.DEFAULT_CELL_SIZE, seed, ItemTable.DEFAULT, algorithm,
+                        TaskProgress.NONE);
+                best = Math.min(best, board.getMazeNanos());
+            }
+            double cells = (double) (width - 2) * (height - 2);
+            out.printf("%-8s %dx%d: %.1f ms, %.2f M cells/s%n", algorithm, width, height, best / 1e6,
+                    cells / best * 1e3);
+        }
+    }
+}
+
+// Randomised depth-first carving from the cell next to the entrance; allocation-free per cell.
+class DfsGenerator implements MazeGenerator {
+
+    @Override
+    public void generate(BoardGrid grid, int start, SplittableRandom random, TaskProgress progress) {
+        long[] visited = new long[(grid.size() + 63) >>> 6];
+        int[] offsets = new int[Direction.VALUES.length];
+        for (Direction direction : Direction.VALUES) {
+            offsets[direction.ordinal()] = direction.getDx() + direction.getDy() * grid.getWidth();
+        }
+
+        int[] stack = new int[Math.max(16, Math.min(grid.size(), 1 << 16))];
+        int top = 0;
+        int[] neighbours = new int[4];
+
+        stack[top++] = start;
+        visited[start >>> 6] |= 1L << start;
+
+        long interior = (long) (grid.getWidth() - 2) * (grid.getHeight() - 2);
+        long carved = 0;
+        while (top > 0) {
+            int cur = stack[--top];
+            int count = 0;
+            if ((++carved & 0xFFFF) == 0) {
+                progress.update(carved, interior);
+            }
+
+            // Only BOARD cells are carved; the border is never BOARD, so neighbours stay in range.
+            for (int d = 0; d < offsets.length; d++) {
+                int next = cur + offsets[d];
+                if (grid.getKind(next) == CellKind.BOARD.ordinal() && (visited[next >>> 6] & (1L << next)) == 0) {
+                    neighbours[count++] = next;
+                    grid.openWall(cur, Direction.VALUES[d]);
+                }
+            }
+
+            if (top + count > stack.length) {
+                stack = Arrays.copyOf(stack, (int) Math.min((long) stack.length * 2, grid.size()));
+            }
+            while (count > 0) {
+                int pick = random.nextInt(count);
+                int neighbour = neighbours[pick];
+                neighbours[pick] = neighbours[--count];
+                stack[top++] = neighbour;
+                visited[neighbour >>> 6] |= 1L << neighbour;
+            }
+        }
+    }
+}
+
+// Shuffles every interior edge and opens those that join two separate regions, tracked by union-find.
+class KruskalGenerator implements MazeGenerator {
+
+    @Override
+    public void generate(BoardGrid grid, int start, SplittableRandom random, TaskProgress progress) {
+        int width = grid.getWidth();
+        int height = grid.getHeight();
+        if (grid.size() > 1 << 30) {
+            throw new IllegalArgumentException("Board too large for Kruskal: " + width + "x" + height);
+        }
+
+        // Edge e joins cell e >> 1 to its east (even e) or south (odd e) neighbour.
+        int[] edges = new int[2 * (width - 2) * (height - 2)];
+        int count = 0;
+        for (int y = 1; y < height - 1; y++) {
+            for (int x = 1; x < width - 1; x++) {
+                int cell = grid.index(x, y);
+                if (x < width - 2) {
+                    edges[count++] = cell << 1;
+                }
+                if (y < height - 2) {
+                    edges[count++] = (cell << 1) | 1;
+                }
+            }
+        }
+
+        int[] parent = new int[grid.size()];
+        for (int i = 0; i < parent.length; i++) {
+            parent[i] = i;
+        }
+
+        for (int i = 0; i < count; i++) {
+            if ((i & 0xFFFF) == 0) {
+                progress.update(i, count);
+            }
+            int j = i + random.nextInt(count - i);
+            int edge = edges[j];
+            edges[j] = edges[i];
+
+            int cell = edge >>> 1;
+            Direction direction = (edge & 1) == 0 ? Direction.EAST : Direction.SOUTH;
+            int a = find(parent, cell);
+            int b = find(parent, cell + ((edge & 1) == 0 ? 1 : width));
+            if (a != b) {
+                parent[a] = b;
+                grid.openWall(cell, direction);
+            }
+        }
+    }
+
+    private static int find(int[] parent, int cell) {
+        while (parent[cell] != cell) {
+            parent[cell] = parent[parent[cell]];
+            cell = parent[cell];
+        }
+        return cell;
+    }
+}
+
+// Loop-erased random walks towards the growing tree; produces uniformly random spanning trees.
+class WilsonGenerator implements MazeGenerator {
+
+    @Override
+    public void generate(BoardGrid grid, int start, SplittableRandom random, TaskProgress progress) {
+        int width = grid.getWidth();
+        int[] offsets = new int[Direction.VALUES.length];
+        for (Direction direction : Direction.VALUES) {
+            offsets[direction.ordinal()] = direction.getDx() + direction.getDy() * width;
+        }
+
+        long[] inTree = new long[(grid.size() + 63) >>> 6];
+        byte[] exits = new byte[grid.size()];
+        inTree[start >>> 6] |= 1L << start;
+
+        long interior = (long) (width - 2) * (grid.getHeight() - 2);
+        long added = 1;
+        for (int y = 1; y < grid.getHeight() - 1; y++) {
+            progress.update(added, interior);
+            for (int x = 1; x < width - 1; x++) {
+                int cell = grid.index(x, y);
+                if ((inTree[cell >>> 6] & (1L << cell)) != 0) {
+                    continue;
+                }
+
+                // Later visits overwrite a cell's exit, which erases any loop the walk made through it.
+                int walker = cell;
+                while ((inTree[walker >>> 6] & (1L << walker)) == 0) {
+                    int d;
+                    do {
+                        d = random.nextInt(4);
+                    } while (grid.getKind(walker + offsets[d]) != CellKind.BOARD.ordinal());
+                    exits[walker] = (byte) d;
+                    walker += offsets[d];
+                }
+
+                walker = cell;
+                while ((inTree[walker >>> 6] & (1L << walker)) == 0) {
+                    inTree[walker >>> 6] |= 1L << walker;
+                    grid.openWall(walker, Direction.VALUES[exits[walker]]);
+                    walker += offsets[exits[walker]];
+                    added++;
+                }
+            }
+        }
+    }
+}
+
+// Builds the maze one row at a time keeping only per-column set labels, so memory is O(width).
+class EllerGenerator implements MazeGenerator {
+
+    // Receives each finished interior row as wall masks, top to bottom.
+    interface RowSink {
+
+        void row(int y, byte[] walls) throws IOException;
+    }
+
+    @Override
+    public void generate(final BoardGrid grid, int start, SplittableRandom random, TaskProgress progress) {
+        try {
+            generateRows(grid.getWidth() - 2, grid.getHeight() - 2, random, progress, new RowSink() {
+                @Override
+                public void row(int y, byte[] walls) {
+                    int index = grid.index(1, y + 1);
+                    for (int x = 0; x < walls.length; x++) {
+                        grid.setWalls(index + x, walls[x]);
+                    }
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static void generateRows(int width, int height, SplittableRandom random, TaskProgress progress,
+            RowSink sink) throws IOException {
+        int[] labels = new int[width];
+        int[] parent = new int[width];
+        int[] roots = new int[width];
+        int[] members = new int[width];
+        boolean[] goesDown = new boolean[width];
+        int[] relabel = new int[width];
+        int[] relabelStamp = new int[width];
+        boolean[] northOpen = new boolean[width];
+        byte[] walls = new byte[width];
+
+        for (int x = 0; x < width; x++) {
+            labels[x] = x;
+            parent[x] = x;
+        }
+        Arrays.fill(relabelStamp, -1);
+
+        for (int y = 0; y < height; y++) {
+            if ((y & 0xFF) == 0) {
+                progress.update(y, height);
+            }
+            boolean last = y == height - 1;
+            for (int x = 0; x < width; x++) {
+                walls[x] = (byte) (northOpen[x] ? BoardGrid.ALL_WALLS & ~Direction.NORTH.bit() : BoardGrid.ALL_WALLS);
+            }
+
+            // Join neighbours in different sets at random; the last row joins all of them.
+            for (int x = 0; x < width - 1; x++) {
+                int a = find(parent, labels[x]);
+                int b = find(parent, labels[x + 1]);
+                if (a != b && (last || random.nextBoolean())) {
+                    parent[a] = b;
+                    walls[x] &= (byte) ~Direction.EAST.bit();
+                    walls[x + 1] &= (byte) ~Direction.WEST.bit();
+                }
+            }
+
+            if (!last) {
+                // Every set continues downwards through at least one of its cells.
+                Arrays.fill(members, 0);
+                Arrays.fill(goesDown, false);
+                for (int x = 0; x < width; x++) {
+                    roots[x] = find(parent, labels[x]);
+                    members[roots[x]]++;
+                }
+                for (int x = 0; x < width; x++) {
+                    int root = roots[x];
+                    members[root]--;
+                    boolean down = random.nextBoolean() || (members[root] == 0 && !goesDown[root]);
+                    northOpen[x] = down;
+                    if (down) {
+                        goesDown[root] = true;
+                        walls[x] &= (byte) ~Direction.SOUTH.bit();
+                    }
+                }
+
+                // Cells below keep their set; every other cell starts a fresh one. Labels stay below width.
+                int next = 0;
+                for (int x = 0; x < width; x++) {
+                    if (northOpen[x]) {
+                        if (relabelStamp[roots[x]] != y) {
+                            relabelStamp[roots[x]] = y;
+                            relabel[roots[x]] = next++;
+                        }
+                        labels[x] = relabel[roots[x]];
+                    } else {
+                        labels[x] = -1;
+                    }
+                }
+                for (int x = 0; x < width; x++) {
+                    if (labels[x] < 0) {
+                        labels[x] = next++;
+                    }
+                    parent[x] = x;
+                }
+            }
+
+            sink.row(y, walls);
+        }
+    }
+
+    private static int find(int[] parent, int label) {
+        while (parent[label] != label) {
+            parent[label] = parent[parent[label]];
+            label = parent[label];
+        }
+        return label;
+    }
+
+    // Streams a complete board file row by row, so the maze never has to fit in memory.
+    public static void stream(final int width, final int height, int cellSize, long seed, ItemTable items,
+            Path path, TaskProgress progress) throws IOException {
+        if (width < 3 || height < 3 || (long) width * height > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Unsupported board size: " + width + "x" + height);
+        }
+
+        SplittableRandom random = new SplittableRandom(seed);
+        final int[] doors = Board.pickDoors(width, height, random.split());
+        final ItemPlacer.Sequence placer = new ItemPlacer.Sequence(items.resolve((width - 2) * (height - 2)),
+                (width - 2) * (height - 2), random.split());
+        SplittableRandom maze = random.split();
+
+        try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            final CRC32 crc = new CRC32();
+            final ByteBuffer row = ByteBuffer.allocate(width);
+            channel.position(BoardFile.HEADER_SIZE);
+
+            writeBorderRow(channel, row, crc);
+            generateRows(width - 2, height - 2, maze, progress, new RowSink() {
+                @Override
+                public void row(int y, byte[] walls) throws IOException {
+                    row.clear();
+                    row.put((byte) BoardGrid.ALL_WALLS);
+                    for (byte cell : walls) {
+                        row.put((byte) ((cell & 0x0F) | (placer.next() << 4)));
+                    }
+                    row.put((byte) BoardGrid.ALL_WALLS);
+                    write(channel, row, crc);
+                }
+            });
+            writeBorderRow(channel, row, crc);
+
+            ByteBuffer header = BoardFile.header(width, height, cellSize, seed, doors[0], doors[1], 0,
+                    (long) width * height, crc);
+            channel.position(0);
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+        }
+    }
+
+    private static void writeBorderRow(FileChannel channel, ByteBuffer row, CRC32 crc) throws IOException {
+        row.clear();
+        while (row.hasRemaining()) {
+            row.put((byte) BoardGrid.ALL_WALLS);
+        }
+        write(channel, row, crc);
+    }
+
+    private static void write(FileChannel channel, ByteBuffer row, CRC32 crc) throws IOException {
+        row.flip();
+        crc.update(row.array(), 0, row.limit());
+        while (row.hasRemaining()) {
+            channel.write(row);
+        }
+    }
+}
+
+// Distance to the exit and the first step towards it for every cell, kept as a shortest-path tree.
+// A passage counts as open only when both cells have the wall open, so replaying half of a wall
+// change is never mistaken for a new passage. Doors are linked to their inner cells directly.
+final class DistanceField {
+
+    private static final byte NONE = -1;
+
+    private final BoardGrid grid;
+    private final int[] offsets;
+    private final int start;
+    private final int entrance;
+    private final int goal;
+    private final int exit;
+    private final int[] dist;
+    private final byte[] next;
+    private int[] queue;
+
+    DistanceField(BoardGrid grid, int start, int entrance, int goal, int exit) {
+        this.grid = grid;
+        this.offsets = BoardSolver.offsets(grid);
+        this.start = start;
+        this.entrance = entrance;
+        this.goal = goal;
+        this.exit = exit;
+        this.dist = new int[grid.size()];
+        this.next = new byte[grid.size()];
+        this.queue = new int[Math.min(grid.size(), 1024)];
+        Arrays.fill(dist, -1);
+        Arrays.fill(next, NONE);
+
+        dist[exit] = 0;
+        dist[goal] = 1;
+        next[goal] = (byte) towards(goal, exit);
+        queue[0] = goal;
+        flood(1);
+        linkEntrance();
+    }
+
+    private DistanceField(DistanceField other, BoardGrid grid) {
+        this.grid = grid;
+        this.offsets = other.offsets;
+        this.start = other.start;
+        this.entrance = other.entrance;
+        this.goal = other.goal;
+        this.exit = other.exit;
+        this.dist = other.dist.clone();
+        this.next = other.next.clone();
+        this.queue = new int[Math.min(grid.size(), 1024)];
+    }
+
+    DistanceField copy(BoardGrid grid) {
+        return new DistanceField(this, grid);
+    }
+
+    public int distance(int index) {
+        return dist[index];
+    }
+
+    public int direction(int index) {
+        return next[index];
+    }
+
+    // Brings the field up to date after the passage from index towards direction opened or closed.
+    public synchronized void edgeChanged(int index, Direction direction) {
+        int other = index + offsets[direction.ordinal()];
+        if (isDoorLink(index, other)) {
+            return;
+        }
+        if (isOpen(index, direction.ordinal())) {
+            // A new passage can only shorten routes, starting from whichever side gains.
+            if (dist[index] >= 0 && (dist[other] < 0 || dist[index] + 1 < dist[other])) {
+                relax(other, index);
+            } else if (dist[other] >= 0 && (dist[index] < 0 || dist[other] + 1 < dist[index])) {
+                relax(index, other);
+            }
+        } else if (next[index] == direction.ordinal()) {
+            repair(index);
+        } else if (next[other] == direction.opposite().ordinal()) {
+            repair(other);
+        }
+        linkEntrance();
+    }
+
+    private boolean isDoorLink(int a, int b) {
+        return (a == goal && b == exit) || (a == exit && b == goal) || (a == start && b == entrance)
+                || (a == entrance && b == start);
+    }
+
+    private void linkEntrance() {
+        if (dist[start] >= 0) {
+            dist[entrance] = dist[start] + 1;
+            next[entrance] = (byte) towards(entrance, start);
+        } else {
+            dist[entrance] = -1;
+            next[entrance] = NONE;
+        }
+    }
+
+    private void relax(int cell, int via) {
+        dist[cell] = dist[via] + 1;
+        next[cell] = (byte) towards(cell, via);
+        queue[0] = cell;
+        flood(1);
+    }
+
+    // Breadth-first from the first count queued cells, whose distances are already final.
+    private void flood(int count) {
+        int head = 0;
+        int tail = count;
+        while (head < tail) {
+            int cur = queue[head++];
+            for (int d = 0; d < offsets.length; d++) {
+                if (!isOpen(cur, d)) {
+                    continue;
+                }
+                int cell = cur + offsets[d];
+                if (dist[cell] < 0 || dist[cur] + 1 < dist[cell]) {
+                    dist[cell] = dist[cur] + 1;
+                    next[cell] = (byte) ((d + 2) & 3);
+                    if (tail == queue.length) {
+                        // Entries before head are spent, so compact before growing.
+                        System.arraycopy(queue, head, queue, 0, tail - head);
+                        tail -= head;
+                        head = 0;
+                        if (tail == queue.length) {
+                            queue = Arrays.copyOf(queue, (int) Math.min((long) queue.length * 2, grid.size()));
+                        }
+                    }
+                    queue[tail++] = cell;
+                }
+            }
+        }
+    }
+
+    // The passage out of root on its route was closed: forget every cell routed through root, then
+    // refill them from the cells around them that kept their routes, nearest first.
+    private void repair(int root) {
+        int count = 0;
+        int[] lost = new int[16];
+        lost[count++] = root;
+        dist[root] = -1;
+        next[root] = NONE;
+        for (int i = 0; i < count; i++) {
+            int cur = lost[i];
+            for (int d = 0; d < offsets.length; d++) {
+                int cell = cur + offsets[d];
+                if (isOpen(cur, d) && next[cell] == ((d + 2) & 3)) {
+                    dist[cell] = -1;
+                    next[cell] = NONE;
+                    if (count == lost.length) {
+                        lost = Arrays.copyOf(lost, count * 2);
+                    }
+                    lost[count++] = cell;
+                }
+            }
+        }
+
+        long[] seeds = new long[count];
+        int seedCount = 0;
+        for (int i = 0; i < count; i++) {
+            int cur = lost[i];
+            int best = -1;
+            for (int d = 0; d < offsets.length; d++) {
+                int cell = cur + offsets[d];
+                if (isOpen(cur, d) && dist[cell] >= 0 && (best < 0 || dist[cell] < dist[cur + offsets[best]])) {
+                    best = d;
+                }
+            }
+            if (best >= 0) {
+                seeds[seedCount++] = ((long) (dist[cur + offsets[best]] + 1) << 32) | cur;
+            }
+        }
+        Arrays.sort(seeds, 0, seedCount);
+
+        // Seeds join the breadth-first queue in distance order, which keeps it a shortest-path search.
+        int head = 0;
+        int tail = 0;
+        int s = 0;
+        while (s < seedCount || head < tail) {
+            int cur;
+            if (s < seedCount && (head == tail || (int) (seeds[s] >>> 32) <= dist[queue[head]])) {
+                long seed = seeds[s++];
+                cur = (int) seed;
+                if (dist[cur] >= 0) {
+                    continue;
+                }
+                dist[cur] = (int) (seed >>> 32);
+                for (int d = 0; d < offsets.length; d++) {
+                    if (isOpen(cur, d) && dist[cur + offsets[d]] == dist[cur] - 1) {
+                        next[cur] = (byte) d;
+                        break;
+                    }
+                }
+            } else {
+                cur = queue[head++];
+            }
+            for (int d = 0; d < offsets.length; d++) {
+                int cell = cur + offsets[d];
+                if (isOpen(cur, d) && dist[cell] < 0) {
+                    dist[cell] = dist[cur] + 1;
+                    next[cell] = (byte) ((d + 2) & 3);
+                    if (tail == queue.length) {
+                        System.arraycopy(queue, head, queue, 0, tail - head);
+                        tail -= head;
+                        head = 0;
+                        if (tail == queue.length) {
+                            queue = Arrays.copyOf(queue, (int) Math.min((long) queue.length * 2, grid.size()));
+                        }
+                    }
+                    queue[tail++] = cell;
+                }
+            }
+        }
+    }
+
+    private boolean isOpen(int cell, int d) {
+        return (grid.getWalls(cell) & (1 << d)) == 0
+                && (grid.getWalls(cell + offsets[d]) & (1 << ((d + 2) & 3))) == 0;
+    }
+
+    private int towards(int from, int to) {
+        for (int d = 0; d < offsets.length; d++) {
+            if (from + offsets[d] == to) {
+                return d;
+            }
+        }
+        throw new IllegalArgumentException("Cells " + from + " and " + to + " are not adjacent");
+    }
+}
+
+// Routes from entrance to exit. Doors sit in the closed border, so the search runs between the interior
+// cells they open onto and the doors are added at both ends of each path.
+final class BoardSolver {
+
+    public static final class Solution {
+
+        private final int[] shortestPath;
+        private final int[] bestPath;
+        private final int bestScore;
+        private final boolean exact;
+
+        Solution(int[] shortestPath, int[] bestPath, int bestScore, boolean exact) {
+            this.shortestPath = shortestPath;
+            this.bestPath = bestPath;
+            this.bestScore = bestScore;
+            this.exact = exact;
+        }
+
+        // Cell indices from entrance to exit, or null if the exit is unreachable.
+        public int[] getShortestPath() {
+            return shortestPath;
+        }
+
+        // The highest-scoring simple path within the step budget, or null if none fits.
+        public int[] getBestPath() {
+            return bestPath;
+        }
+
+        // Sum of item scores along the best path; Integer.MIN_VALUE if there is none.
+        public int getBestScore() {
+            return bestScore;
+        }
+
+        // False if the search gave up on a heavily looped board and the best path is only the best found.
+        public boolean isExact() {
+            return exact;
+        }
+    }
+
+    // Bounds the branch-and-bound search on boards that editing has filled with loops.
+    static final long MAX_EXPANSIONS = 50_000_000L;
+
+    private BoardSolver() {
+    }
+
+    public static Solution solve(Board board, int stepBudget) {
+        BoardGrid grid = board.getGrid();
+        int start = board.innerIndex(board.getEntrance());
+        int goal = board.innerIndex(board.getExit());
+        int[] offsets = offsets(grid);
+
+        // Breadth-first from the goal: dist doubles as the shortest-path tree and as the search's pruning bound.
+        int[] dist = new int[grid.size()];
+        Arrays.fill(dist, -1);
+        int[] queue = new int[grid.size()];
+        int head = 0;
+        int tail = 0;
+        long edges = 0;
+        queue[tail++] = goal;
+        dist[goal] = 0;
+        while (head < tail) {
+            int cur = queue[head++];
+            for (int d = 0; d < offsets.length; d++) {
+                if (!isOpen(grid, offsets, cur, d)) {
+                    continue;
+                }
+                int next = cur + offsets[d];
+                edges++;
+                if (dist[next] < 0) {
+                    dist[next] = dist[cur] + 1;
+                    queue[tail++] = next;
+                }
+            }
+        }
+        if (dist[start] < 0) {
+            return new Solution(null, null, Integer.MIN_VALUE, true);
+        }
+
+        int[] shortest = new int[dist[start] + 3];
+        shortest[0] = board.getEntrance();
+        int cur = start;
+        for (int i = 1; i < shortest.length - 1; i++) {
+            shortest[i] = cur;
+            for (int d = 0; d < offsets.length; d++) {
+                if (isOpen(grid, offsets, cur, d) && dist[cur + offsets[d]] == dist[cur] - 1) {
+                    cur += offsets[d];
+                    break;
+                }
+            }
+        }
+        shortest[shortest.length - 1] = board.getExit();
+
+        // Each open wall was counted from both sides. In a tree there is exactly one simple path.
+        int budget = stepBudget - 2;
+        if (dist[start] > budget) {
+            return new Solution(shortest, null, Integer.MIN_VALUE, true);
+        }
+        if (edges / 2 == tail - 1) {
+            return new Solution(shortest, shortest, score(grid, shortest), true);
+        }
+        return search(board, grid, offsets, dist, start, goal, Math.min(budget, tail - 1), shortest);
+    }
+
+    // Depth-first branch and bound over simple paths, with an explicit stack and a visited bitset.
+    // The budget here is capped by the reachable cell count, which bounds any simple path.
+    private static Solution search(Board board, BoardGrid grid, int[] offsets, int[] dist, int start, int goal,
+            int budget, int[] shortest) {
+        int[] stack = new int[budget + 1];
+        byte[] nextDir = new byte[budget + 1];
+        int[] scores = new int[budget + 1];
+        int[] gains = new int[budget + 1];
+        long[] visited = strip(grid, offsets, start, goal);
+        int positive = 0;
+        for (int cell = 0; cell < grid.size(); cell++) {
+            if ((visited[cell >>> 6] & (1L << cell)) == 0) {
+                positive += Math.max(0, ItemType.scoreOf(grid.getItem(cell)));
+            }
+        }
+
+        int[] best = Arrays.copyOfRange(shortest, 1, shortest.length - 1);
+        int bestScore = score(grid, shortest);
+
+        int top = 0;
+        int score = ItemType.scoreOf(grid.getItem(start));
+        stack[0] = start;
+        scores[0] = score;
+        gains[0] = Math.max(0, score);
+        visited[start >>> 6] |= 1L << start;
+        long expansions = 0;
+        boolean exact = true;
+
+        while (top >= 0) {
+            int cur = stack[top];
+            if (cur == goal) {
+                if (scores[top] > bestScore) {
+                    bestScore = scores[top];
+                    best = Arrays.copyOf(stack, top + 1);
+                }
+                visited[cur >>> 6] &= ~(1L << cur);
+                top--;
+                continue;
+            }
+
+            int d = nextDir[top];
+            while (d < offsets.length && !isOpen(grid, offsets, cur, d)) {
+                d++;
+            }
+            if (d == offsets.length) {
+                nextDir[top] = 0;
+                visited[cur >>> 6] &= ~(1L << cur);
+                top--;
+                continue;
+            }
+            nextDir[top] = (byte) (d + 1);
+
+            int next = cur + offsets[d];
+            if ((visited[next >>> 6] & (1L << next)) != 0 || top + 1 + dist[next] > budget) {
+                continue;
+            }
+            int item = ItemType.scoreOf(grid.getItem(next));
+            int gain = gains[top] + Math.max(0, item);
+            // Even collecting every remaining reward could not beat the best path found so far.
+            if (scores[top] + item + positive - gain <= bestScore) {
+                continue;
+            }
+            if (++expansions > MAX_EXPANSIONS) {
+                exact = false;
+                break;
+            }
+            top++;
+            stack[top] = next;
+            nextDir[top] = 0;
+            scores[top] = scores[top - 1] + item;
+            gains[top] = gain;
+            visited[next >>> 6] |= 1L << next;
+        }
+
+        int[] path = new int[best.length + 2];
+        path[0] = board.getEntrance();
+        System.arraycopy(best, 0, path, 1, best.length);
+        path[path.length - 1] = board.getExit();
+        return new Solution(shortest, path, bestScore, exact);
+    }
+
+    // Marks every cell that no simple start-goal path can use. A bridge that does not separate start
+    // from goal leads into a pocket that a path would have to leave the way it came in; Tarjan's
+    // bridge search rooted at start finds those pockets, and a flood from start that never enters them
+    // keeps the rest. The marks come back as visited bits, so the search never enters those cells.
+    private static long[] strip(BoardGrid grid, int[] offsets, int start, int goal) {
+        int[] pre = new int[grid.size()];
+        int[] low = new int[grid.size()];
+        long[] pocket = new long[(grid.size() + 63) >>> 6];
+        int[] stack = new int[grid.size()];
+        byte[] nextDir = new byte[grid.size()];
+        int order = 0;
+        int top = 0;
+        stack[0] = start;
+        pre[start] = low[start] = ++order;
+
+        while (top >= 0) {
+            int cur = stack[top];
+            int d = nextDir[top];
+            int parent = top > 0 ? stack[top - 1] : -1;
+            while (d < offsets.length && !isOpen(grid, offsets, cur, d)) {
+                d++;
+            }
+            if (d < offsets.length) {
+                nextDir[top] = (byte) (d + 1);
+                int next = cur + offsets[d];
+                if (pre[next] == 0) {
+                    top++;
+                    stack[top] = next;
+                    nextDir[top] = 0;
+                    pre[next] = low[next] = ++order;
+                } else if (next != parent) {
+                    low[cur] = Math.min(low[cur], pre[next]);
+                }
+                continue;
+            }
+
+            top--;
+            if (parent >= 0) {
+                low[parent] = Math.min(low[parent], low[cur]);
+                boolean goalBelow = pre[goal] != 0 && pre[goal] >= pre[cur];
+                if (low[cur] > pre[parent] && !goalBelow) {
+                    pocket[cur >>> 6] |= 1L << cur;
+                }
+            }
+        }
+
+        long[] unusable = new long[pocket.length];
+        Arrays.fill(unusable, -1L);
+        int head = 0;
+        int tail = 0;
+        stack[tail++] = start;
+        unusable[start >>> 6] &= ~(1L << start);
+        while (head < tail) {
+            int cur = stack[head++];
+            for (int d = 0; d < offsets.length; d++) {
+                int next = cur + offsets[d];
+                if (isOpen(grid, offsets, cur, d) && (unusable[next >>> 6] & (1L << next)) != 0
+                        && (pocket[next >>> 6] & (1L << next)) == 0) {
+                    unusable[next >>> 6] &= ~(1L << next);
+                    stack[tail++] = next;
+                }
+            }
+        }
+        return unusable;
+    }
+
+    static int score(BoardGrid grid, int[] path) {
+        int score = 0;
+        for (int cell : path) {
+            score += ItemType.scoreOf(grid.getItem(cell));
+        }
+        return score;
+    }
+
+    // A route from entrance to exit that needs no memory per cell, for boards too large for solve(). A
+    // right-hand wall follower marks each cell it enters and unmarks the one it leaves when backing into
+    // a marked cell, so on a perfect maze the marks end up as exactly the route, which is also the shortest.
+    // On boards with loops the route may be longer, and when the walk runs into its own route other than
+    // by backing out, the marks branch and solve() takes over. The route's cells go to route unless it is
+    // null. Returns the number of moves from entrance to exit, or -1 if the exit is unreachable.
+    public static long trace(Board board, IntList route) {
+        BoardGrid grid = board.getGrid();
+        int[] offsets = offsets(grid);
+        int entrance = board.getEntrance();
+        int start = board.innerIndex(entrance);
+        int goal = board.innerIndex(board.getExit());
+
+        int facing = 0;
+        while (entrance + offsets[facing] != start) {
+            facing++;
+        }
+        int cell = start;
+        long marked = 1;
+        boolean branched = false;
+        grid.setMarked(start, true);
+        // A wall follower passes each passage at most twice before it is back where it started.
+        for (long steps = 4L * grid.size(); cell != goal && steps > 0; steps--) {
+            int next = -1;
+            for (int turn = 1; turn <= 4; turn++) {
+                // Right, ahead, left, then back.
+                int d = (facing + 6 - turn) & 3;
+                if (isOpen(grid, offsets, cell, d)) {
+                    next = cell + offsets[d];
+                    facing = d;
+                    break;
+                }
+            }
+            if (next < 0) {
+                break;
+            }
+            if (grid.isMarked(next)) {
+                // Backing out means returning to the one marked neighbour; any other is a loop.
+                branched |= cell == start || markedNeighbours(grid, offsets, cell) > 1;
+                grid.setMarked(cell, false);
+                marked--;
+            } else {
+                grid.setMarked(next, true);
+                marked++;
+            }
+            cell = next;
+        }
+        boolean reached = cell == goal && !branched;
+
+        // Read the route off the marks, clearing them on the way.
+        long moves = 0;
+        int routeStart = route != null ? route.size() : 0;
+        if (reached) {
+            if (route != null) {
+                route.add(entrance);
+            }
+            for (cell = start; ; ) {
+                grid.setMarked(cell, false);
+                marked--;
+                moves++;
+                if (route != null) {
+                    route.add(cell);
+                }
+                if (cell == goal) {
+                    break;
+                }
+                int next = -1;
+                for (int d = 0; d < offsets.length; d++) {
+                    if (isOpen(grid, offsets, cell, d) && grid.isMarked(cell + offsets[d])) {
+                        next = cell + offsets[d];
+                        break;
+                    }
+                }
+                if (next < 0) {
+                    // A loop the walk never backed into left marks that are not one path; solve() takes over.
+                    reached = false;
+                    branched = true;
+                    break;
+                }
+                cell = next;
+            }
+            if (route != null) {
+                if (reached) {
+                    route.add(board.getExit());
+                } else {
+                    route.truncate(routeStart);
+                }
+            }
+        }
+        // Marks off the route are left only on boards with loops, where the route can cut across them.
+        if (marked != 0) {
+            for (int i = 0; i < grid.size(); i++) {
+                grid.setMarked(i, false);
+            }
+        }
+        if (reached) {
+            return moves + 1;
+        }
+        if (!branched) {
+            return -1;
+        }
+        int[] path = solve(board, 0).getShortestPath();
+        if (path == null) {
+            return -1;
+        }
+        if (route != null) {
+            for (int index : path) {
+                route.add(index);
+            }
+        }
+        return path.length - 1;
+    }
+
+    private static int markedNeighbours(BoardGrid grid, int[] offsets, int cell) {
+        int count = 0;
+        for (int d = 0; d < offsets.length; d++) {
+            if (isOpen(grid, offsets, cell, d) && grid.isMarked(cell + offsets[d])) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static boolean isOpen(BoardGrid grid, int[] offsets, int cell, int d) {
+        int other = cell + offsets[d];
+        return (grid.getWalls(cell) & (1 << d)) == 0 && (grid.getWalls(other) & (1 << ((d + 2) & 3))) == 0
+                && grid.getKind(other) == CellKind.BOARD.ordinal();
+    }
+
+    static int[] offsets(BoardGrid grid) {
+        int[] offsets = new int[Direction.VALUES.length];
+        for (Direction direction : Direction.VALUES) {
+            offsets[direction.ordinal()] = direction.getDx() + direction.getDy() * grid.getWidth();
+        }
+        return offsets;
+    }
+}
+
+// Difficulty metrics for a board, from one scan over the wall masks after the exit distance field.
+// Large boards are scanned in row bands on a thread pool; each band fills its own primitive counters,
+// which are summed at the end.
+final class BoardAnalytics {
+
+    // Cells per band; smaller boards are scanned on the calling thread.
+    private static final int BAND_CELLS = 1 << 20;
+    private static final int HISTOGRAM_BUCKETS = 33;
+
+    public static final class Report {
+
+        private final int cells;
+        private final int deadEnds;
+        private final int junctions;
+        private final long degreeSum;
+        private final long junctionChoices;
+        private final int corridors;
+        private final long corridorCells;
+        private final int longestCorridor;
+        private final long[] corridorHistogram;
+        private final int solutionLength;
+        private final int solutionScore;
+        private final int items;
+        private final int reachableCells;
+        private final long totalReward;
+        private final long totalPenalty;
+        private final long reachableReward;
+        private final long reachablePenalty;
+
+        Report(int cells, Band band, int solutionLength, int solutionScore) {
+            this.cells = cells;
+            this.deadEnds = band.deadEnds;
+            this.junctions = band.junctions;
+            this.degreeSum = band.degreeSum;
+            this.junctionChoices = band.junctionChoices;
+            this.corridors = band.corridors;
+            this.corridorCells = band.corridorCells;
+            this.longestCorridor = band.longestCorridor;
+            this.corridorHistogram = band.histogram;
+            this.solutionLength = solutionLength;
+            this.solutionScore = solutionScore;
+            this.items = band.items;
+            this.reachableCells = band.reachableCells;
+            this.totalReward = band.totalReward;
+            this.totalPenalty = band.totalPenalty;
+            this.reachableReward = band.reachableReward;
+            this.reachablePenalty = band.reachablePenalty;
+        }
+
+        // Playable cells, excluding the border and its doors.
+        public int getCells() {
+            return cells;
+        }
+
+        // Cells with exactly one open side.
+        public int getDeadEnds() {
+            return deadEnds;
+        }
+
+        // Cells with three or more open sides.
+        public int getJunctions() {
+            return junctions;
+        }
+
+        public double getAverageDegree() {
+            return cells == 0 ? 0 : (double) degreeSum / cells;
+        }
+
+        // Mean number of ways on offered at a junction, not counting the way back.
+        public double getBranchingFactor() {
+            return junctions == 0 ? 0 : (double) junctionChoices / junctions;
+        }
+
+        // Runs of two-sided cells between junctions, dead ends and doors. Loops without any such end
+        // are not counted.
+        public int getCorridors() {
+            return corridors;
+        }
+
+        public double getAverageCorridorLength() {
+            return corridors == 0 ? 0 : (double) corridorCells / corridors;
+        }
+
+        public int getLongestCorridor() {
+            return longestCorridor;
+        }
+
+        // Corridor counts by length: bucket 0 holds length 0, bucket k lengths from 2^(k-1) to 2^k - 1.
+        public long[] getCorridorHistogram() {
+            return corridorHistogram.clone();
+        }
+
+        // Moves from entrance to exit along a shortest route, or -1 if there is none.
+        public int getSolutionLength() {
+            return solutionLength;
+        }
+
+        // Share of playable cells on that route.
+        public double getSolutionFraction() {
+            return solutionLength < 0 || cells == 0 ? 0 : (double) (solutionLength - 1) / cells;
+        }
+
+        // Item score collected along that route.
+        public int getSolutionScore() {
+            return solutionScore;
+        }
+
+        public int getItems() {
+            return items;
+        }
+
+        // Playable cells connected to the exit.
+        public int getReachableCells() {
+            return reachableCells;
+        }
+
+        public long getTotalReward() {
+            return totalReward;
+        }
+
+        // Sum of obstacle penalties, as a negative number.
+        public long getTotalPenalty() {
+            return totalPenalty;
+        }
+
+        public long getReachableReward() {
+            return reachableReward;
+        }
+
+        public long getReachablePenalty() {
+            return reachablePenalty;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("cells %d, reachable %d, dead ends %d, junctions %d%n", cells, reachableCells,
+                    deadEnds, junctions));
+            sb.append(String.format("average degree %.3f, branching factor %.3f%n", getAverageDegree(),
+                    getBranchingFactor()));
+            sb.append(String.format("corridors %d, average length %.2f, longest %d%n", corridors,
+                    getAverageCorridorLength(), longestCorridor));
+            sb.append(String.format("solution %d moves (%.2f%% of cells), score %d%n", solutionLength,
+                    getSolutionFraction() * 100, solutionScore));
+            sb.append(String.format("items %d, rewards %d (%d reachable), penalties %d (%d reachable)%n", items,
+                    totalReward, reachableReward, totalPenalty, reachablePenalty));
+            sb.append("corridor lengths:");
+            for (int k = 0; k < corridorHistogram.length; k++) {
+                if (corridorHistogram[k] != 0) {
+                    sb.append(' ').append(k == 0 ? 0 : 1 << (k - 1)).append('+').append(':')
+                            .append(corridorHistogram[k]);
+                }
+            }
+            return sb.toString();
+        }
+    }
+
+    private BoardAnalytics() {
+    }
+
+    // Usage: analyze board.gbrd [threads]
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: Main analyze board.gbrd [threads]");
+            System.exit(2);
+        }
+        System.setProperty("java.awt.headless", "true");
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+        Board board = BoardFile.read(Paths.get(args[0]));
+        long start = System.nanoTime();
+        Report report = analyze(board, threads);
+        System.out.println(report);
+        System.out.printf("Analyzed %dx%d on %d threads in %.1f ms%n", board.getWidth(), board.getHeight(), threads,
+                (System.nanoTime() - start) / 1e6);
+    }
+
+    public static Report analyze(Board board) {
+        return analyze(board, Runtime.getRuntime().availableProcessors());
+    }
+
+    // Throws CancellationException if the calling thread is interrupted.
+    public static Report analyze(final Board board, int threads) {
+        final BoardGrid grid = board.getGrid();
+        final int width = grid.getWidth();
+        int height = grid.getHeight();
+        final int start = board.innerIndex(board.getEntrance());
+        final int goal = board.innerIndex(board.getExit());
+        // Built once here, so the bands only read it.
+        final DistanceField field = board.distanceField();
+
+        final int bandRows = Math.max(1, BAND_CELLS / width);
+        int bands = (height - 2 + bandRows - 1) / bandRows;
+        Band total;
+        if (bands <= 1 || threads <= 1) {
+            total = new Band(grid, field, start, goal);
+            total.scan(1, height - 1);
+        } else {
+            ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, bands));
+            try {
+                List<Future<Band>> parts = new ArrayList<>();
+                for (int y = 1; y < height - 1; y += bandRows) {
+                    final int from = y;
+                    final int to = Math.min(height - 1, y + bandRows);
+                    parts.add(pool.submit(new Callable<Band>() {
+                        @Override
+                        public Band call() {
+                            Band band = new Band(grid, field, start, goal);
+                            band.scan(from, to);
+                            return band;
+                        }
+                    }));
+                }
+                total = new Band(grid, field, start, goal);
+                for (Future<Band> part : parts) {
+                    total.add(part.get());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CancellationException();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Board analysis failed", e.getCause());
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+
+        // The route follows the distance field from the entrance, so it costs its length, not a pass.
+        int solutionLength = field.distance(board.getEntrance());
+        int solutionScore = 0;
+        if (solutionLength > 0) {
+            int[] offsets = BoardSolver.offsets(grid);
+            for (int cell = start; cell != board.getExit(); cell += offsets[field.direction(cell)]) {
+                solutionScore += ItemType.scoreOf(grid.getItem(cell));
+            }
+        }
+        return new Report((width - 2) * (height - 2), total, solutionLength, solutionScore);
+    }
+
+    // Counters for one band of rows. Corridors are walked from the band's own junctions and dead ends;
+    // a walk may leave the band, and each corridor is counted only from its lower-indexed end.
+    private static final class Band {
+
+        private final BoardGrid grid;
+        private final DistanceField field;
+        private final int start;
+        private final int goal;
+        private final int[] offsets;
+
+        int deadEnds;
+        int junctions;
+        long degreeSum;
+        long junctionChoices;
+        int corridors;
+        long corridorCells;
+        int longestCorridor;
+        final long[] histogram = new long[HISTOGRAM_BUCKETS];
+        int items;
+        int reachableCells;
+        long totalReward;
+        long totalPenalty;
+        long reachableReward;
+        long reachablePenalty;
+
+        Band(BoardGrid grid, DistanceField field, int start, int goal) {
+            this.grid = grid;
+            this.field = field;
+            this.start = start;
+            this.goal = goal;
+            this.offsets = BoardSolver.offsets(grid);
+        }
+
+        void scan(int fromRow, int toRow) {
+            int width = grid.getWidth();
+            for (int y = fromRow; y < toRow; y++) {
+                for (int cell = y * width + 1, end = y * width + width - 1; cell < end; cell++) {
+                    int open = openSides(cell);
+                    int degree = Integer.bitCount(open) + (cell == start || cell == goal ? 1 : 0);
+                    degreeSum += degree;
+                    if (degree == 1) {
+                        deadEnds++;
+                    } else if (degree >= 3) {
+                        junctions++;
+                        junctionChoices += degree - 1;
+                    }
+                    if (degree != 2 || cell == start || cell == goal) {
+                        for (int d = 0; d < 4; d++) {
+                            if ((open & (1 << d)) != 0) {
+                                walk(cell, d);
+                            }
+                        }
+                    }
+
+                    boolean reachable = field.distance(cell) >= 0;
+                    if (reachable) {
+                        reachableCells++;
+                    }
+                    int item = grid.getItem(cell);
+                    if (item != 0) {
+                        int score = ItemType.scoreOf(item);
+                        items++;
+                        if (score > 0) {
+                            totalReward += score;
+                            reachableReward += reachable ? score : 0;
+                        } else {
+                            totalPenalty += score;
+                            reachablePenalty += reachable ? score : 0;
+                        }
+                    }
+                }
+            }
+        }
+
+        // Bit d set when the side towards direction d leads to another playable cell.
+        private int openSides(int cell) {
+            int walls = grid.getWalls(cell);
+            int open = 0;
+            for (int d = 0; d < 4; d++) {
+                int other = cell + offsets[d];
+                if ((walls & (1 << d)) == 0 && (grid.getWalls(other) & (1 << ((d + 2) & 3))) == 0
+                        && grid.getKind(other) == CellKind.BOARD.ordinal()) {
+                    open |= 1 << d;
+                }
+            }
+            return open;
+        }
+
+        private void walk(int from, int direction) {
+            int cell = from + offsets[direction];
+            int d = direction;
+            int length = 0;
+            while (true) {
+                int open = openSides(cell);
+                if (cell == start || cell == goal || Integer.bitCount(open) != 2) {
+                    break;
+                }
+                d = Integer.numberOfTrailingZeros(open & ~(1 << ((d + 2) & 3)));
+                cell += offsets[d];
+                length++;
+            }
+            // The walk back from the far end starts opposite to how this one arrived.
+            if (cell > from || (cell == from && direction < ((d + 2) & 3))) {
+                corridors++;
+                corridorCells += length;
+                longestCorridor = Math.max(longestCorridor, length);
+                histogram[32 - Integer.numberOfLeadingZeros(length)]++;
+            }
+        }
+
+        void add(Band other) {
+            deadEnds += other.deadEnds;
+            junctions += other.junctions;
+            degreeSum += other.degreeSum;
+            junctionChoices += other.junctionChoices;
+            corridors += other.corridors;
+            corridorCells += other.corridorCells;
+            longestCorridor = Math.max(longestCorridor, other.longestCorridor);
+            for (int k = 0; k < histogram.length; k++) {
+                histogram[k] += other.histogram[k];
+            }
+            items += other.items;
+            reachableCells += other.reachableCells;
+            totalReward += other.totalReward;
+            totalPenalty += other.totalPenalty;
+            reachableReward += other.reachableReward;
+            reachablePenalty += other.reachablePenalty;
+        }
+    }
+}
+
+// Pristine generated boards by (dimensions, seed); callers always receive their own copy.
+final class BoardCache {
+
+    private static final long MAX_CELLS = 64L << 20;
+
+    private static long cells;
+
+    private static final Map<String, Board> boards = new LinkedHashMap<>(16, 0.75f, true);
+
+    private BoardCache() {
+    }
+
+    public static Board get(int width, int height, int cellSize, long seed) {
+        return get(width, height, cellSize, seed, ItemTable.DEFAULT, MazeAlgorithm.DFS, TaskProgress.NONE);
+    }
+
+    public static Board get(int width, int height, int cellSize, long seed, ItemTable items, MazeAlgorithm algorithm,
+            TaskProgress progress) {
+        String key = width + "x" + height + "@" + cellSize + "#" + seed + algorithm + Arrays.toString(
+                items.resolve((width - 2) * (height - 2)));
+        Board board;
+        synchronized (boards) {
+            board = boards.get(key);
+        }
+        if (board == null) {
+            board = new Board(width, height, cellSize, seed, items, algorithm, progress);
+            put(key, board);
+        }
+        return board.copy();
+    }
+
+    private static void put(String key, Board board) {
+        long size = board.getGrid().size();
+        if (size > MAX_CELLS) {
+            return;
+        }
+
+        synchronized (boards) {
+            if (boards.put(key, board) == null) {
+                cells += size;
+            }
+            Iterator<Board> eldest = boards.values().iterator();
+            while (cells > MAX_CELLS && eldest.hasNext()) {
+                cells -= eldest.next().getGrid().size();
+                eldest.remove();
+            }
+        }
+    }
+}
+
+// An unbounded board made of square chunks, each generated on demand from the world seed and its chunk
+// coordinates with the usual maze generator and item placer. Every chunk is a perfect maze of its own,
+// and each pair of neighbouring chunks shares one opening whose place follows from the seed alone, so
+// chunks agree on it without seeing each other and the whole world stays connected. A bounded LRU
+// cache holds the materialized chunks; evicted ones are simply generated again when needed.
+//
+// World cells are addressed by int coordinates that may be negative. A chunk is a BoardGrid with a
+// one-cell wall border around its interior, so interior cell (x, y) of chunk (cx, cy) is world cell
+// (cx * chunkSize + x - 1, cy * chunkSize + y - 1).
+final class ChunkedWorld implements Closeable {
+
+    public static final int DEFAULT_CHUNK_SIZE = 64;
+    public static final int DEFAULT_CACHED_CHUNKS = 256;
+
+    // Called on a worker thread when a chunk generated in the background becomes available.
+    interface ChunkListener {
+
+        void chunkReady(ChunkedWorld world, int chunkX, int chunkY);
+    }
+
+    private final long seed;
+    private final int chunkSize;
+    private final int cellSize;
+    private final int[] itemCounts;
+    private final MazeAlgorithm algorithm;
+    private final Map<Long, BoardGrid> chunks;
+    private final Map<Long, Future<BoardGrid>> pending = new HashMap<>();
+    private final List<ChunkListener> listeners = new CopyOnWriteArrayList<>();
+    private final ExecutorService workers;
+    private final AtomicLong generated = new AtomicLong();
+    private final AtomicLong stalls = new AtomicLong();
+
+    public ChunkedWorld(long seed) {
+        this(seed, DEFAULT_CHUNK_SIZE, Board.DEFAULT_CELL_SIZE, ItemTable.DEFAULT, MazeAlgorithm.DFS,
+                DEFAULT_CACHED_CHUNKS);
+    }
+
+    public ChunkedWorld(long seed, int chunkSize, int cellSize, ItemTable items, MazeAlgorithm algorithm,
+            final int cachedChunks) {
+        if (chunkSize < 2 || cachedChunks < 1) {
+            throw new IllegalArgumentException("Invalid chunk size " + chunkSize + " or cache size " + cachedChunks);
+        }
+        this.seed = seed;
+        this.chunkSize = chunkSize;
+        this.cellSize = cellSize;
+        this.itemCounts = items.resolve(chunkSize * chunkSize);
+        this.algorithm = algorithm;
+        this.chunks = new LinkedHashMap<Long, BoardGrid>(cachedChunks, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, BoardGrid> eldest) {
+                return size() > cachedChunks;
+            }
+        };
+        this.workers = Executors.newFixedThreadPool(Math.max(1, Math.min(2,
+                Runtime.getRuntime().availableProcessors() - 1)), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable task) {
+                        Thread thread = new Thread(task, "chunk-generator");
+                        thread.setDaemon(true);
+                        thread.setPriority(Thread.MIN_PRIORITY);
+                        return thread;
+                    }
+                });
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public int getCellSize() {
+        return cellSize;
+    }
+
+    // Chunks generated so far, including ones generated again after eviction.
+    public long getGeneratedChunks() {
+        return generated.get();
+    }
+
+    // Lookups that had to generate a chunk, or wait for one, on the calling thread.
+    public long getStalls() {
+        return stalls.get();
+    }
+
+    public synchronized int getCachedChunks() {
+        return chunks.size();
+    }
+
+    public int chunkOf(int coordinate) {
+        return Math.floorDiv(coordinate, chunkSize);
+    }
+
+    // Index of a world cell within its chunk's grid.
+    public int localIndex(int x, int y) {
+        return (Math.floorMod(y, chunkSize) + 1) * (chunkSize + 2) + Math.floorMod(x, chunkSize) + 1;
+    }
+
+    public void addChunkListener(ChunkListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeChunkListener(ChunkListener listener) {
+        listeners.remove(listener);
+    }
+
+    // Whether the side of a world cell towards direction is closed. Generates the chunk if it must.
+    public boolean hasWall(int x, int y, Direction direction) {
+        return chunk(chunkOf(x), chunkOf(y)).hasWall(localIndex(x, y), direction);
+    }
+
+    public int getItem(int x, int y) {
+        return chunk(chunkOf(x), chunkOf(y)).getItem(localIndex(x, y));
+    }
+
+    // The chunk, generated on the calling thread unless it is cached or already being generated.
+    // Throws CancellationException if the calling thread is interrupted while waiting.
+    public BoardGrid chunk(int chunkX, int chunkY) {
+        long key = key(chunkX, chunkY);
+        Future<BoardGrid> future;
+        FutureTask<BoardGrid> task = null;
+        synchronized (this) {
+            BoardGrid grid = chunks.get(key);
+            if (grid != null) {
+                return grid;
+            }
+            future = pending.get(key);
+            if (future == null) {
+                // Registered before it runs, so a prefetch meanwhile waits for it instead of generating again.
+                task = new FutureTask<>(generator(chunkX, chunkY, key, false));
+                pending.put(key, task);
+                future = task;
+            }
+        }
+        stalls.incrementAndGet();
+        if (task != null) {
+            task.run();
+        }
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException();
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Chunk generation failed", e.getCause());
+        }
+    }
+
+    // The chunk if it is cached; otherwise null, with its generation started in the background.
+    public BoardGrid chunkIfReady(int chunkX, int chunkY) {
+        long key = key(chunkX, chunkY);
+        synchronized (this) {
+            BoardGrid grid = chunks.get(key);
+            if (grid == null) {
+                schedule(chunkX, chunkY, key);
+            }
+            return grid;
+        }
+    }
+
+    // Starts generating every chunk in the range that is neither cached nor already on its way.
+    public synchronized void prefetch(int minChunkX, int minChunkY, int maxChunkX, int maxChunkY) {
+        for (int cy = minChunkY; cy <= maxChunkY; cy++) {
+            for (int cx = minChunkX; cx <= maxChunkX; cx++) {
+                long key = key(cx, cy);
+                if (!chunks.containsKey(key)) {
+                    schedule(cx, cy, key);
+                }
+            }
+        }
+    }
+
+    private void schedule(int chunkX, int chunkY, long key) {
+        if (pending.containsKey(key) || workers.isShutdown()) {
+            return;
+        }
+        pending.put(key, workers.submit(generator(chunkX, chunkY, key, true)));
+    }
+
+    // Generates a chunk into the cache and retires its pending entry, even if generation fails.
+    private Callable<BoardGrid> generator(final int chunkX, final int chunkY, final long key, final boolean notify) {
+        return new Callable<BoardGrid>() {
+            @Override
+            public BoardGrid call() {
+                BoardGrid grid = null;
+                try {
+                    grid = generate(chunkX, chunkY);
+                } finally {
+                    synchronized (ChunkedWorld.this) {
+                        if (grid != null) {
+                            chunks.put(key, grid);
+                        }
+                        pending.remove(key);
+                    }
+                }
+                if (notify) {
+                    for (ChunkListener listener : listeners) {
+                        listener.chunkReady(ChunkedWorld.this, chunkX, chunkY);
+                    }
+                }
+                return grid;
+            }
+        };
+    }
+
+    // Items first, then the maze, each from its own split of the chunk's seed, as Board does.
+    BoardGrid generate(int chunkX, int chunkY) {
+        int size = chunkSize + 2;
+        BoardGrid grid = new BoardGrid(size, size);
+        grid.fill(BoardGrid.ALL_WALLS, CellKind.BOARD);
+        for (int i = 0; i < size; i++) {
+            grid.setKind(grid.index(i, 0), CellKind.WALL);
+            grid.setKind(grid.index(i, size - 1), CellKind.WALL);
+            grid.setKind(grid.index(0, i), CellKind.WALL);
+            grid.setKind(grid.index(size - 1, i), CellKind.WALL);
+        }
+
+        SplittableRandom random = new SplittableRandom(mix(chunkX, chunkY, 0));
+        ItemPlacer.place(grid, itemCounts, random.split());
+        algorithm.getGenerator().generate(grid, grid.index(1, 1), random.split(), TaskProgress.NONE);
+
+        // One opening per shared side; both chunks derive its offset from the chunk west or north of it.
+        grid.openWall(grid.index(opening(chunkX, chunkY - 1, Direction.SOUTH) + 1, 1), Direction.NORTH);
+        grid.openWall(grid.index(1, opening(chunkX - 1, chunkY, Direction.EAST) + 1), Direction.WEST);
+        grid.openWall(grid.index(size - 2, opening(chunkX, chunkY, Direction.EAST) + 1), Direction.EAST);
+        grid.openWall(grid.index(opening(chunkX, chunkY, Direction.SOUTH) + 1, size - 2), Direction.SOUTH);
+        generated.incrementAndGet();
+        return grid;
+    }
+
+    // Offset along the shared side of the opening east or south of a chunk.
+    private int opening(int chunkX, int chunkY, Direction side) {
+        return new SplittableRandom(mix(chunkX, chunkY, side.ordinal() + 1)).nextInt(chunkSize);
+    }
+
+    private long mix(int chunkX, int chunkY, int salt) {
+        return seed ^ (chunkX * 0x9E3779B97F4A7C15L) ^ (chunkY * 0xC2B2AE3D27D4EB4FL) ^ (salt * 0x165667B19E3779F9L);
+    }
+
+    private static long key(int chunkX, int chunkY) {
+        return ((long) chunkX << 32) | (chunkY & 0xFFFFFFFFL);
+    }
+
+    @Override
+    public void close() {
+        workers.shutdownNow();
+    }
+}
+
+// Versioned binary board format: a fixed header followed by one packed byte per cell, optionally deflated.
+final class BoardFile {
+
+    public static final int MAGIC = 0x47425244;
+    public static final int VERSION = 3;
+    public static final int FLAG_DEFLATE = 1;
+    // The payload lists edits to apply on top of the board the seed generates, instead of every cell.
+    public static final int FLAG_SEED = 2;
+
+    static final int HEADER_SIZE = 48;
+    private static final int CHUNK_SIZE = 1 << 16;
+    private static final long MAP_THRESHOLD = 1 << 20;
+
+    private BoardFile() {
+    }
+
+    public static void write(Board board, Path path, boolean compress) throws IOException {
+        write(board, path, compress, TaskProgress.NONE);
+    }
+
+    public static void write(Board board, Path path, boolean compress, TaskProgress progress) throws IOException {
+        BoardGrid grid = board.getGrid();
+        if (!compress && grid instanceof MappedBoardGrid && isMappedFrom((MappedBoardGrid) grid, path)) {
+            flush(board, (MappedBoardGrid) grid, progress);
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            write(board, channel, compress, progress);
+        }
+    }
+
+    public static void write(Board board, FileChannel channel, boolean compress, TaskProgress progress)
+            throws IOException {
+        long begin = System.nanoTime();
+        long start = channel.position();
+        channel.position(start + HEADER_SIZE);
+
+        CRC32 crc = new CRC32();
+        long payload = writePayload(board.getGrid(), channel, compress, crc, progress);
+
+        ByteBuffer header = header(board, compress, payload, crc);
+        long end = channel.position();
+        channel.position(start);
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+        channel.position(end);
+        BoardMetrics.INSTANCE.saved(end - start, System.nanoTime() - begin);
+    }
+
+    private static boolean isMappedFrom(MappedBoardGrid grid, Path path) throws IOException {
+        return grid.getOffset() == HEADER_SIZE && Files.exists(path) && Files.isSameFile(grid.getPath(), path);
+    }
+
+    // A board mapped from this very file is already in place: its pages are forced out and the header
+    // rewritten with a checksum taken straight from the mapping.
+    private static void flush(Board board, MappedBoardGrid grid, TaskProgress progress) throws IOException {
+        long begin = System.nanoTime();
+        grid.force();
+        CRC32 crc = new CRC32();
+        grid.checksum(crc, progress);
+        ByteBuffer header = header(board, false, grid.size(), crc);
+        try (FileChannel channel = FileChannel.open(grid.getPath(), StandardOpenOption.WRITE)) {
+            while (header.hasRemaining()) {
+                channel.write(header, header.position());
+            }
+        }
+        BoardMetrics.INSTANCE.saved(HEADER_SIZE + (long) grid.size(), System.nanoTime() - begin);
+    }
+
+    // Generates an Eller maze straight into a new board file mapped into memory, so the cells never
+    // touch the heap. The file is the one EllerGenerator.stream() writes; the board stays mapped to it.
+    public static Board createMapped(Path path, final int width, int height, int cellSize, long seed,
+            ItemTable items, TaskProgress progress) throws IOException {
+        if (width < 3 || height < 3 || (long) width * height > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Unsupported board size: " + width + "x" + height);
+        }
+
+        SplittableRandom random = new SplittableRandom(seed);
+        int[] doors = Board.pickDoors(width, height, random.split());
+        final ItemPlacer.Sequence placer = new ItemPlacer.Sequence(items.resolve((width - 2) * (height - 2)),
+                (width - 2) * (height - 2), random.split());
+        SplittableRandom maze = random.split();
+
+        final MappedBoardGrid grid;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            grid = new MappedBoardGrid(path, channel, HEADER_SIZE, width, height, FileChannel.MapMode.READ_WRITE);
+        }
+        final byte[] row = new byte[width];
+        Arrays.fill(row, (byte) BoardGrid.ALL_WALLS);
+        grid.unpack(0, row, 0, width);
+        grid.unpack((height - 1) * width, row, 0, width);
+        EllerGenerator.generateRows(width - 2, height - 2, maze, progress, new EllerGenerator.RowSink() {
+            @Override
+            public void row(int y, byte[] walls) {
+                for (int x = 0; x < walls.length; x++) {
+                    row[x + 1] = (byte) ((walls[x] & 0x0F) | (placer.next() << 4));
+                }
+                grid.unpack((y + 1) * width, row, 0, width);
+            }
+        });
+
+        Board board = new Board(width, height, cellSize, seed, doors[0], doors[1], grid);
+        write(board, path, false, progress);
+        return board;
+    }
+
+    // Maps an uncompressed board file instead of reading it: the cells stay in the file, and writing the
+    // board back to the same path is a flush. Unlike read(), this does not verify the checksum.
+    public static Board map(Path path, boolean writable) throws IOException {
+        try (FileChannel channel = writable
+                ? FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)
+                : FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = readHeader(channel);
+            int version = header.getShort();
+            int flags = header.getShort();
+            if (version < 1 || version > VERSION) {
+                throw new IOException("Unsupported board file version " + version);
+            }
+            if (flags != 0) {
+                throw new IOException("Only uncompressed board files can be mapped");
+            }
+            int width = header.getInt();
+            int height = header.getInt();
+            int cellSize = header.getInt();
+            long seed = header.getLong();
+            int entrance = header.getInt();
+            int exit = header.getInt();
+            long payload = header.getLong();
+            if (width < 3 || height < 3 || payload != (long) width * height || payload > Integer.MAX_VALUE) {
+                throw new IOException("Corrupt board header");
+            }
+            if (channel.size() < HEADER_SIZE + payload) {
+                throw new EOFException("Truncated board data");
+            }
+            try {
+                MappedBoardGrid grid = new MappedBoardGrid(path, channel, HEADER_SIZE, width, height,
+                        writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY);
+                return new Board(width, height, cellSize, seed, entrance, exit, grid);
+            } catch (IllegalArgumentException e) {
+                throw new IOException("Corrupt board header", e);
+            }
+        }
+    }
+
+    public static byte[] toBytes(Board board, boolean compress) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(HEADER_SIZE + (compress ? 1024 : board.getGrid().size()));
+        out.write(new byte[HEADER_SIZE]);
+
+        CRC32 crc = new CRC32();
+        long payload = writePayload(board.getGrid(), Channels.newChannel(out), compress, crc, TaskProgress.NONE);
+
+        byte[] bytes = out.toByteArray();
+        header(board, compress, payload, crc).get(bytes, 0, HEADER_SIZE);
+        return bytes;
+    }
+
+    // Saves only the seed and the edits made since generation: a few bytes for an unedited board.
+    public static void writeSeed(Board board, Path path) throws IOException {
+        if (!board.isReproducible()) {
+            throw new IllegalStateException("Board cannot be reproduced from its seed");
+        }
+        long begin = System.nanoTime();
+
+        // An edit sets the whole cell, so only the last one per cell is kept: undo churn never grows the file.
+        int edits = board.getEditCount();
+        IntIntMap last = new IntIntMap(edits);
+        int kept = 0;
+        for (int i = 0; i < edits; i++) {
+            if (last.get(board.getEditIndex(i), -1) < 0) {
+                kept++;
+            }
+            last.put(board.getEditIndex(i), i);
+        }
+
+        int[] itemCounts = board.getItemCounts();
+        ByteBuffer payload = ByteBuffer.allocate(1 + itemCounts.length * 4 + 1 + 4 + kept * 5);
+        payload.put((byte) itemCounts.length);
+        for (int count : itemCounts) {
+            payload.putInt(count);
+        }
+        payload.put((byte) board.getMazeAlgorithm().ordinal());
+        payload.putInt(kept);
+        for (int i = 0; i < edits; i++) {
+            if (last.get(board.getEditIndex(i), -1) == i) {
+                payload.putInt(board.getEditIndex(i));
+                payload.put((byte) board.getEditValue(i));
+            }
+        }
+        CRC32 crc = new CRC32();
+        crc.update(payload.array(), 0, payload.position());
+        payload.flip();
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = header(board, FLAG_SEED, payload.remaining(), crc);
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            while (payload.hasRemaining()) {
+                channel.write(payload);
+            }
+            BoardMetrics.INSTANCE.saved(channel.size(), System.nanoTime() - begin);
+        }
+    }
+
+    private static ByteBuffer header(Board board, boolean compress, long payload, CRC32 crc) {
+        return header(board, compress ? FLAG_DEFLATE : 0, payload, crc);
+    }
+
+    private static ByteBuffer header(Board board, int flags, long payload, CRC32 crc) {
+        return header(board.getWidth(), board.getHeight(), board.getCellSize(), board.getSeed(), board.getEntrance(),
+                board.getExit(), flags, payload, crc);
+    }
+
+    static ByteBuffer header(int width, int height, int cellSize, long seed, int entrance, int exit, int flags,
+            long payload, CRC32 crc) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC);
+        header.putShort((short) VERSION);
+        header.putShort((short) flags);
+        header.putInt(width);
+        header.putInt(height);
+        header.putInt(cellSize);
+        header.putLong(seed);
+        header.putInt(entrance);
+        header.putInt(exit);
+        header.putLong(payload);
+        header.putInt((int) crc.getValue());
+        header.flip();
+        return header;
+    }
+
+    private static long writePayload(BoardGrid grid, WritableByteChannel channel, boolean compress, CRC32 crc,
+            TaskProgress progress) throws IOException {
+        ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE);
+        Deflater deflater = compress ? new Deflater(Deflater.BEST_SPEED) : null;
+        DeflaterOutputStream out = compress
+                ? new DeflaterOutputStream(Channels.newOutputStream(channel), deflater, CHUNK_SIZE)
+                : null;
+        try {
+            for (int from = 0; from < grid.size(); from += CHUNK_SIZE) {
+                progress.update(from, grid.size());
+                int count = Math.min(CHUNK_SIZE, grid.size() - from);
+                grid.pack(from, chunk.array(), 0, count);
+                chunk.clear().limit(count);
+                crc.update(chunk.array(), 0, count);
+                if (out != null) {
+                    out.write(chunk.array(), 0, count);
+                } else {
+                    while (chunk.hasRemaining()) {
+                        channel.write(chunk);
+                    }
+                }
+            }
+            if (out == null) {
+                return grid.size();
+            }
+            // Finishing instead of closing keeps the channel open for the header.
+            out.finish();
+            out.flush();
+            return deflater.getBytesWritten();
+        } finally {
+            if (deflater != null) {
+                deflater.end();
+            }
+        }
+    }
+
+    public static Board read(Path path) throws IOException {
+        return read(path, TaskProgress.NONE);
+    }
+
+    public static Board read(Path path, TaskProgress progress) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return read(channel, progress);
+        }
+    }
+
+    public static Board read(FileChannel channel, TaskProgress progress) throws IOException {
+        long begin = System.nanoTime();
+        long start = channel.position();
+        Board board = readBoard(channel, progress);
+        BoardMetrics.INSTANCE.loaded(channel.size() - start, System.nanoTime() - begin);
+        return board;
+    }
+
+    private static ByteBuffer readHeader(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (header.hasRemaining()) {
+            if (channel.read(header) < 0) {
+                throw new EOFException("Truncated board header");
+            }
+        }
+        header.flip();
+        if (header.getInt() != MAGIC) {
+            throw new IOException("Not a board file");
+        }
+        return header;
+    }
+
+    private static Board readBoard(FileChannel channel, TaskProgress progress) throws IOException {
+        ByteBuffer header = readHeader(channel);
+        // Older versions differ only in seed files: version 1 had no item table, version 2 no maze algorithm.
+        int version = header.getShort();
+        if (version < 1 || version > VERSION) {
+            throw new IOException("Unsupported board file version " + version);
+        }
+        int flags = header.getShort();
+        if ((flags & ~(FLAG_DEFLATE | FLAG_SEED)) != 0) {
+            throw new IOException("Unsupported board file flags " + flags);
+        }
+        int width = header.getInt();
+        int height = header.getInt();
+        int cellSize = header.getInt();
+        long seed = header.getLong();
+        int entrance = header.getInt();
+        int exit = header.getInt();
+        long payload = header.getLong();
+        int checksum = header.getInt();
+
+        if ((flags & FLAG_SEED) != 0) {
+            return readSeed(channel, version, width, height, cellSize, seed, entrance, exit, payload, checksum,
+                    progress);
+        }
+
+        Board board;
+        try {
+            board = new Board(width, height, cellSize, seed, entrance, exit);
+        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            throw new IOException("Corrupt board header", e);
+        }
+
+        BoardGrid grid = board.getGrid();
+        long payloadStart = channel.position();
+        if (channel.size() - payloadStart < payload) {
+            throw new EOFException("Truncated board data");
+        }
+
+        CRC32 crc = new CRC32();
+        if ((flags & FLAG_DEFLATE) != 0) {
+            Inflater inflater = new Inflater();
+            try {
+                InputStream in = new InflaterInputStream(Channels.newInputStream(channel), inflater, CHUNK_SIZE);
+                byte[] chunk = new byte[CHUNK_SIZE];
+                for (int from = 0; from < grid.size(); from += CHUNK_SIZE) {
+                    progress.update(from, grid.size());
+                    int count = Math.min(CHUNK_SIZE, grid.size() - from);
+                    readFully(in, chunk, count);
+                    crc.update(chunk, 0, count);
+                    grid.unpack(from, chunk, 0, count);
+                }
+            } finally {
+                inflater.end();
+            }
+        } else if (payload != grid.size()) {
+            throw new IOException("Board data size mismatch");
+        } else if (payload >= MAP_THRESHOLD) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, payloadStart, payload);
+            byte[] chunk = new byte[CHUNK_SIZE];
+            for (int from = 0; from < grid.size(); from += CHUNK_SIZE) {
+                progress.update(from, grid.size());
+                int count = Math.min(CHUNK_SIZE, grid.size() - from);
+                mapped.get(chunk, 0, count);
+                crc.update(chunk, 0, count);
+                grid.unpack(from, chunk, 0, count);
+            }
+        } else {
+            ByteBuffer data = ByteBuffer.allocate((int) payload);
+            while (data.hasRemaining()) {
+                if (channel.read(data) < 0) {
+                    throw new EOFException("Truncated board data");
+                }
+            }
+            crc.update(data.array(), 0, data.position());
+            grid.unpack(0, data.array(), 0, grid.size());
+        }
+
+        if ((int) crc.getValue() != checksum) {
+            throw new IOException("Board data checksum mismatch");
+        }
+        return board;
+    }
+
+    private static Board readSeed(FileChannel channel, int version, int width, int height, int cellSize, long seed,
+            int entrance, int exit, long payload, int checksum, TaskProgress progress) throws IOException {
+        if (payload < 4 || payload > Integer.MAX_VALUE || channel.size() - channel.position() < payload) {
+            throw new IOException("Corrupt board edit list");
+        }
+        ByteBuffer data = ByteBuffer.allocate((int) payload);
+        while (data.hasRemaining()) {
+            if (channel.read(data) < 0) {
+                throw new EOFException("Truncated board data");
+            }
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data.array(), 0, data.position());
+        if ((int) crc.getValue() != checksum) {
+            throw new IOException("Board data checksum mismatch");
+        }
+        data.flip();
+
+        Board board;
+        try {
+            ItemTable items = ItemTable.DEFAULT;
+            if (version > 1) {
+                int types = data.get();
+                if (types != ItemType.VALUES.length) {
+                    throw new IOException("Unsupported item table with " + types + " types");
+                }
+                int[] counts = new int[types - 1];
+                data.getInt();
+                for (int i = 0; i < counts.length; i++) {
+                    counts[i] = data.getInt();
+                }
+                items = ItemTable.ofCounts(counts);
+            }
+            MazeAlgorithm algorithm = MazeAlgorithm.DFS;
+            if (version > 2) {
+                int ordinal = data.get();
+                if (ordinal < 0 || ordinal >= MazeAlgorithm.VALUES.length) {
+                    throw new IOException("Unknown maze algorithm " + ordinal);
+                }
+                algorithm = MazeAlgorithm.VALUES[ordinal];
+            }
+            board = BoardCache.get(width, height, cellSize, seed, items, algorithm, progress);
+        } catch (IllegalArgumentException | BufferUnderflowException e) {
+            throw new IOException("Corrupt board header", e);
+        }
+        if (board.getEntrance() != entrance || board.getExit() != exit) {
+            throw new IOException("Seed " + seed + " does not reproduce the saved board");
+        }
+
+        int count = data.getInt();
+        if (count < 0 || data.remaining() != count * 5L) {
+            throw new IOException("Corrupt board edit list");
+        }
+        for (int i = 0; i < count; i++) {
+            int index = data.getInt();
+            int packed = data.get() & 0xFF;
+            if (index < 0 || index >= board.getGrid().size()) {
+                throw new IOException("Board edit outside the board: " + index);
+            }
+            board.applyEdit(index, packed);
+        }
+        return board;
+    }
+
+    private static void readFully(InputStream in, byte[] buffer, int count) throws IOException {
+        int read = 0;
+        while (read < count) {
+            int n = in.read(buffer, read, count - read);
+            if (n < 0) {
+                throw new EOFException("Truncated board data");
+            }
+            read += n;
+        }
+    }
+}
+
+// Edit history of a board kept as a snapshot file plus an append-only journal. Every edit appends one
+// small record, so saving costs in proportion to the edit; reloading reads the snapshot and replays the
+// journal, and compaction folds the journal into a fresh snapshot.
+//
+// Journal layout: magic, version and the CRC32 of the snapshot's header, then records of a kind byte,
+// a cell count byte and, per cell, its index with the packed cell before and after. Undo and redo are
+// recorded as records of their own, so replay never has to interpret history to rebuild the board.
+// A journal whose CRC does not match the snapshot belongs to an older snapshot and is ignored.
+//
+// Compaction writes and forces a new snapshot and a new journal under temporary names of their own,
+// then commits the journal as journal.next before installing the snapshot and the journal. A crash at
+// any point leaves either the old pair, or journal.next to finish installing on the next open().
+final class BoardJournal implements Closeable {
+
+    public static final int MAGIC = 0x47424A4C;
+    public static final int VERSION = 1;
+    // Journal size past which a compaction is due.
+    public static final long COMPACT_BYTES = 64 * 1024;
+
+    static final int HEADER_SIZE = 12;
+    private static final int DO = 1;
+    private static final int UNDO = 2;
+    private static final int REDO = 3;
+    private static final int CELL_BYTES = 6;
+    private static final int MAX_CELLS = 2;
+
+    private final Board board;
+    private final Path snapshot;
+    private final Path journal;
+    private final ByteBuffer record = ByteBuffer.allocate(2 + MAX_CELLS * CELL_BYTES);
+    // Guarded by this, like everything below: a compaction switches the channel from its own thread.
+    private FileChannel channel;
+    private long size;
+    // Undo history as (index, before, after) triples; actions holds where each action starts in cells.
+    private final IntList cells = new IntList();
+    private final IntList actions = new IntList();
+    // Actions before the cursor can be undone, the ones from it on redone.
+    private int cursor;
+    private Compaction compaction;
+
+    private BoardJournal(Board board, Path snapshot, Path journal) throws IOException {
+        this.board = board;
+        this.snapshot = snapshot;
+        this.journal = journal;
+        this.channel = FileChannel.open(journal, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+    }
+
+    // Saves the board as a new snapshot and starts an empty journal for it. The board must not be
+    // edited until this returns.
+    public static BoardJournal create(Board board, Path snapshot, Path journal, TaskProgress progress)
+            throws IOException {
+        Files.deleteIfExists(nextPath(journal));
+        Path temp = tempFile(snapshot);
+        try {
+            writeSnapshot(board, temp, progress);
+            Files.move(temp, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        BoardJournal result = new BoardJournal(board, snapshot, journal);
+        try {
+            result.reset(snapshotId(snapshot));
+        } catch (IOException e) {
+            result.close();
+            throw e;
+        }
+        return result;
+    }
+
+    // Loads the snapshot and replays the journal over it; a missing or stale journal is started afresh.
+    public static BoardJournal open(Path snapshot, Path journal, TaskProgress progress) throws IOException {
+        recover(snapshot, journal);
+        Board board = BoardFile.read(snapshot, progress);
+        int id = snapshotId(snapshot);
+        BoardJournal result = new BoardJournal(board, snapshot, journal);
+        try {
+            if (!result.replay(id, progress)) {
+                result.reset(id);
+            }
+        } catch (IOException e) {
+            result.close();
+            throw e;
+        }
+        return result;
+    }
+
+    public Board getBoard() {
+        return board;
+    }
+
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public synchronized boolean needsCompaction() {
+        return size >= COMPACT_BYTES;
+    }
+
+    public synchronized boolean canUndo() {
+        return cursor > 0;
+    }
+
+    public synchronized boolean canRedo() {
+        return cursor < actions.size();
+    }
+
+    public synchronized void setWall(int index, Direction direction, boolean closed) throws IOException {
+        int neighbour = index + direction.getDx() + direction.getDy() * board.getWidth();
+        BoardGrid grid = board.getGrid();
+        int before = grid.getPacked(index);
+        int beforeNeighbour = grid.getPacked(neighbour);
+        int bit = direction.bit();
+        int opposite = direction.opposite().bit();
+        int after = closed ? before | bit : before & ~bit;
+        int afterNeighbour = closed ? beforeNeighbour | opposite : beforeNeighbour & ~opposite;
+        if (after == before && afterNeighbour == beforeNeighbour) {
+            return;
+        }
+        record.clear();
+        record.put((byte) DO).put((byte) 2);
+        putCell(index, before, after);
+        putCell(neighbour, beforeNeighbour, afterNeighbour);
+        append();
+
+        beginAction();
+        addCell(index, before, after);
+        addCell(neighbour, beforeNeighbour, afterNeighbour);
+        board.applyEdit(index, after);
+        board.applyEdit(neighbour, afterNeighbour);
+    }
+
+    public synchronized void setItem(int index, ItemType type) throws IOException {
+        int before = board.getGrid().getPacked(index);
+        int after = (before & BoardGrid.ALL_WALLS) | (type.ordinal() << 4);
+        if (after == before) {
+            return;
+        }
+        record.clear();
+        record.put((byte) DO).put((byte) 1);
+        putCell(index, before, after);
+        append();
+
+        beginAction();
+        addCell(index, before, after);
+        board.applyEdit(index, after);
+    }
+
+    public synchronized boolean undo() throws IOException {
+        if (!canUndo()) {
+            return false;
+        }
+        int action = cursor - 1;
+        writeAction(UNDO, action, true);
+        cursor--;
+        applyAction(action, true);
+        return true;
+    }
+
+    public synchronized boolean redo() throws IOException {
+        if (!canRedo()) {
+            return false;
+        }
+        writeAction(REDO, cursor, false);
+        applyAction(cursor, false);
+        cursor++;
+        return true;
+    }
+
+    // Makes every appended record durable. It waits for a compaction being installed, so what it
+    // forces is always in the journal that survives.
+    public synchronized void force() throws IOException {
+        channel.force(false);
+    }
+
+    // Only notes where the journal ends; the compaction rebuilds the board as it is now from the snapshot
+    // and the records up to here, so the editing thread copies nothing.
+    public synchronized Compaction startCompaction() {
+        if (compaction != null) {
+            compaction.cancelled = true;
+        }
+        compaction = new Compaction(size);
+        return compaction;
+    }
+
+    // A compaction still running is cancelled; one being installed finishes first.
+    @Override
+    public synchronized void close() throws IOException {
+        if (compaction != null) {
+            compaction.cancelled = true;
+            compaction = null;
+        }
+        channel.close();
+    }
+
+    private void beginAction() {
+        // A new action discards whatever could have been redone.
+        if (cursor < actions.size()) {
+            cells.truncate(actions.get(cursor));
+            actions.truncate(cursor);
+        }
+        actions.add(cells.size());
+        cursor++;
+    }
+
+    private void addCell(int index, int before, int after) {
+        cells.add(index);
+        cells.add(before);
+        cells.add(after);
+    }
+
+    private int actionEnd(int action) {
+        return action + 1 < actions.size() ? actions.get(action + 1) : cells.size();
+    }
+
+    private void applyAction(int action, boolean reverse) {
+        for (int i = actions.get(action); i < actionEnd(action); i += 3) {
+            board.applyEdit(cells.get(i), cells.get(reverse ? i + 1 : i + 2));
+        }
+    }
+
+    // Undo records hold the cells going from after back to before.
+    private void writeAction(int kind, int action, boolean reverse) throws IOException {
+        int from = actions.get(action);
+        int to = actionEnd(action);
+        record.clear();
+        record.put((byte) kind).put((byte) ((to - from) / 3));
+        for (int i = from; i < to; i += 3) {
+            int before = cells.get(i + 1);
+            int after = cells.get(i + 2);
+            putCell(cells.get(i), reverse ? after : before, reverse ? before : after);
+        }
+        append();
+    }
+
+    private void putCell(int index, int before, int after) {
+        record.putInt(index).put((byte) before).put((byte) after);
+    }
+
+    private void append() throws IOException {
+        record.flip();
+        while (record.hasRemaining()) {
+            size += channel.write(record, size);
+        }
+    }
+
+    private void reset(int id) throws IOException {
+        ByteBuffer header = header(id);
+        channel.truncate(0);
+        size = 0;
+        while (header.hasRemaining()) {
+            size += channel.write(header, size);
+        }
+        channel.force(false);
+    }
+
+    private static ByteBuffer header(int id) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putInt(MAGIC).putInt(VERSION).putInt(id);
+        header.flip();
+        return header;
+    }
+
+    // Rebuilds the board and as much undo history as the journal holds. A record cut short by a crash
+    // is dropped from the file.
+    private boolean replay(int id, TaskProgress progress) throws IOException {
+        long length = channel.size();
+        if (length < HEADER_SIZE) {
+            return false;
+        }
+        ByteBuffer data = read(channel, 0, length);
+        if (data.getInt() != MAGIC || data.getInt() != VERSION || data.getInt() != id) {
+            return false;
+        }
+
+        int[] read = new int[MAX_CELLS * 3];
+        int end = HEADER_SIZE;
+        int count;
+        while ((count = nextRecord(data, read)) > 0) {
+            progress.update(data.position(), length);
+            int kind = data.get(end);
+            end = data.position();
+
+            // The board follows the records; the history may be shorter than them when older actions
+            // were compacted away.
+            for (int i = 0; i < count * 3; i += 3) {
+                board.applyEdit(read[i], read[i + 2]);
+            }
+            if (kind == DO) {
+                beginAction();
+                for (int i = 0; i < count * 3; i += 3) {
+                    addCell(read[i], read[i + 1], read[i + 2]);
+                }
+            } else if (kind == UNDO && canUndo()) {
+                cursor--;
+            } else if (kind == REDO && canRedo()) {
+                cursor++;
+            }
+        }
+        size = end;
+        if (end < length) {
+            channel.truncate(end);
+        }
+        return true;
+    }
+
+    // Reads the record at the buffer's position into read as (index, before, after) triples and returns
+    // its cell count, or 0 at the end or at a record cut short, leaving the position on it.
+    private int nextRecord(ByteBuffer data, int[] read) throws IOException {
+        if (data.remaining() < 2) {
+            return 0;
+        }
+        int start = data.position();
+        int kind = data.get(start);
+        int count = data.get(start + 1);
+        if (kind < DO || kind > REDO || count < 1 || count > MAX_CELLS) {
+            throw new IOException("Corrupt journal record at " + start);
+        }
+        if (data.remaining() < 2 + count * CELL_BYTES) {
+            return 0;
+        }
+        data.position(start + 2);
+        for (int i = 0; i < count * 3; i += 3) {
+            read[i] = data.getInt();
+            read[i + 1] = data.get() & 0xFF;
+            read[i + 2] = data.get() & 0xFF;
+            if (read[i] < 0 || read[i] >= board.getGrid().size()) {
+                throw new IOException("Journal edit outside the board: " + read[i]);
+            }
+        }
+        return count;
+    }
+
+    private static ByteBuffer read(FileChannel channel, long from, long to) throws IOException {
+        if (to - from > Integer.MAX_VALUE) {
+            throw new IOException("Journal too large: " + to);
+        }
+        ByteBuffer data = ByteBuffer.allocate((int) (to - from));
+        while (data.hasRemaining()) {
+            if (channel.read(data, from + data.position()) < 0) {
+                throw new EOFException("Truncated journal");
+            }
+        }
+        data.flip();
+        return data;
+    }
+
+    private static void writeSnapshot(Board board, Path path, TaskProgress progress) throws IOException {
+        if (board.isReproducible()) {
+            BoardFile.writeSeed(board, path);
+        } else {
+            BoardFile.write(board, path, false, progress);
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+    }
+
+    private static int snapshotId(Path snapshot) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(BoardFile.HEADER_SIZE);
+        try (FileChannel channel = FileChannel.open(snapshot, StandardOpenOption.READ)) {
+            while (header.hasRemaining()) {
+                if (channel.read(header) < 0) {
+                    throw new EOFException("Truncated board header");
+                }
+            }
+        }
+        CRC32 crc = new CRC32();
+        crc.update(header.array());
+        return (int) crc.getValue();
+    }
+
+    private static int journalId(Path journal) throws IOException {
+        try (FileChannel channel = FileChannel.open(journal, StandardOpenOption.READ)) {
+            ByteBuffer header = read(channel, 0, HEADER_SIZE);
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException("Not a journal: " + journal);
+            }
+            return header.getInt();
+        }
+    }
+
+    // Every writer gets a file of its own beside the target, so the final move stays on one file system.
+    private static Path tempFile(Path target) throws IOException {
+        return Files.createTempFile(target.toAbsolutePath().getParent(), target.getFileName() + ".", ".tmp");
+    }
+
+    private static Path nextPath(Path journal) {
+        return journal.resolveSibling(journal.getFileName() + ".next");
+    }
+
+    // Finishes a compaction that crashed after committing journal.next: its snapshot is installed first
+    // unless it already is, then the journal. Without a snapshot to match it the old pair still stands.
+    private static void recover(Path snapshot, Path journal) throws IOException {
+        Path next = nextPath(journal);
+        if (!Files.exists(next)) {
+            return;
+        }
+        int id = journalId(next);
+        if (!Files.exists(snapshot) || snapshotId(snapshot) != id) {
+            Path match = null;
+            try (DirectoryStream<Path> temps = Files.newDirectoryStream(snapshot.toAbsolutePath().getParent(),
+                    snapshot.getFileName() + ".*.tmp")) {
+                for (Path temp : temps) {
+                    if (Files.size(temp) >= BoardFile.HEADER_SIZE && snapshotId(temp) == id) {
+                        match = temp;
+                    }
+                }
+            }
+            if (match == null) {
+                Files.delete(next);
+                return;
+            }
+            Files.move(match, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        Files.move(next, journal, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // A new snapshot of the board as it was when the compaction started, written off the editing thread
+    // while edits carry on in the journal. The undo history stays in memory.
+    final class Compaction {
+
+        private final long mark;
+        // Set under the journal's lock when it closes or a newer compaction starts.
+        private boolean cancelled;
+        private Path snapshotTemp;
+        private Path journalTemp;
+        private FileChannel next;
+        private long copied;
+
+        Compaction(long mark) {
+            this.mark = mark;
+        }
+
+        // Writes and installs the compaction, or removes its files if it fails or is cancelled.
+        public void run(TaskProgress progress) throws IOException {
+            boolean installed = false;
+            try {
+                write(progress);
+                installed = install();
+            } finally {
+                if (!installed) {
+                    discard();
+                }
+            }
+        }
+
+        // Rebuilds the board from the snapshot and the records up to the mark, then writes and forces it
+        // and a journal holding the records appended since. Edits carry on meanwhile.
+        private void write(TaskProgress progress) throws IOException {
+            FileChannel live;
+            long end;
+            synchronized (BoardJournal.this) {
+                if (cancelled) {
+                    return;
+                }
+                live = channel;
+                end = size;
+            }
+            Board copy = BoardFile.read(snapshot, TaskProgress.NONE);
+            ByteBuffer data = read(live, HEADER_SIZE, mark);
+            int[] cell = new int[MAX_CELLS * 3];
+            int count;
+            while ((count = nextRecord(data, cell)) > 0) {
+                for (int i = 0; i < count * 3; i += 3) {
+                    copy.applyEdit(cell[i], cell[i + 2]);
+                }
+            }
+
+            snapshotTemp = tempFile(snapshot);
+            writeSnapshot(copy, snapshotTemp, progress);
+            journalTemp = tempFile(journal);
+            next = FileChannel.open(journalTemp, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            ByteBuffer header = header(snapshotId(snapshotTemp));
+            while (header.hasRemaining()) {
+                next.write(header, header.position());
+            }
+            copied = end;
+            transfer(live, mark, end, HEADER_SIZE);
+            next.force(false);
+        }
+
+        // Holds the journal's lock, so edits wait only for the records appended since write() read them,
+        // one force and three renames. journal.next is the commit point.
+        private boolean install() throws IOException {
+            synchronized (BoardJournal.this) {
+                if (cancelled || next == null) {
+                    return false;
+                }
+                long length = transfer(channel, copied, size, HEADER_SIZE + copied - mark);
+                next.force(false);
+                Path committed = nextPath(journal);
+                Files.move(journalTemp, committed, StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+                Files.move(snapshotTemp, snapshot, StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+                Files.move(committed, journal, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                channel.close();
+                channel = next;
+                size = length;
+                compaction = null;
+                return true;
+            }
+        }
+
+        // Copies journal records [from, to) into the new journal at the given position; returns where they end.
+        private long transfer(FileChannel source, long from, long to, long at) throws IOException {
+            ByteBuffer data = read(source, from, to);
+            while (data.hasRemaining()) {
+                at += next.write(data, at);
+            }
+            return at;
+        }
+
+        private void discard() throws IOException {
+            if (next != null) {
+                next.close();
+            }
+            if (journalTemp != null) {
+                Files.deleteIfExists(journalTemp);
+            }
+            if (snapshotTemp != null) {
+                Files.deleteIfExists(snapshotTemp);
+            }
+        }
+    }
+}
+
+// Headless generation of many boards in parallel into one zip archive with a manifest.
+final class BatchGenerator {
+
+    private BatchGenerator() {
+    }
+
+    // Usage: batch count width height [archive [threads [cellSize [seed]]]]
+    public static void main(String[] args) throws Exception {
+        if (args.length < 3) {
+            System.err.println("Usage: Main batch count width height [archive [threads [cellSize [seed]]]]");
+            System.exit(2);
+        }
+        System.setProperty("java.awt.headless", "true");
+
+        int count = Integer.parseInt(args[0]);
+        int width = Integer.parseInt(args[1]);
+        int height = Integer.parseInt(args[2]);
+        Path archive = Paths.get(args.length > 3 ? args[3] : "boards.zip");
+        int threads = args.length > 4 ? Integer.parseInt(args[4]) : Runtime.getRuntime().availableProcessors();
+        int cellSize = args.length > 5 ? Integer.parseInt(args[5]) : Board.DEFAULT_CELL_SIZE;
+        long seed = args.length > 6 ? Long.parseLong(args[6]) : System.nanoTime();
+
+        long start = System.nanoTime();
+        long bytes = run(count, width, height, cellSize, seed, threads, archive);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%d boards (%dx%d) on %d threads in %.2f s: %.1f boards/s, %.1f MB written to %s%n",
+                count, width, height, threads, seconds, count / seconds, bytes / 1e6, archive);
+    }
+
+    // Board i uses a seed derived from the batch seed and i, so a batch can be regenerated exactly.
+    public static long run(int count, final int width, final int height, final int cellSize, long seed,
+            int threads, Path archive) throws IOException, InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CompletionService<Entry> completion = new ExecutorCompletionService<>(pool);
+        StringBuilder manifest = new StringBuilder("id,seed,width,height,entrance,exit,items,generateMillis,bytes\n");
+
+        try (ZipOutputStream zip = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(archive), 1 << 16))) {
+            // A bounded number of boards in flight keeps memory flat regardless of the batch size.
+            int submitted = 0;
+            int inFlight = Math.max(2, threads * 2);
+            for (; submitted < Math.min(count, inFlight); submitted++) {
+                completion.submit(task(submitted, boardSeed(seed, submitted), width, height, cellSize));
+            }
+
+            long written = 0;
+            for (int done = 0; done < count; done++) {
+                Entry entry;
+                try {
+                    entry = completion.take().get();
+                } catch (ExecutionException e) {
+                    throw new IOException("Board generation failed", e.getCause());
+                }
+                if (submitted < count) {
+                    completion.submit(task(submitted, boardSeed(seed, submitted), width, height, cellSize));
+                    submitted++;
+                }
+
+                ZipEntry zipEntry = new ZipEntry(String.format("board-%08d.gbrd", entry.id));
+                zipEntry.setMethod(ZipEntry.STORED);
+                zipEntry.setSize(entry.data.length);
+                zipEntry.setCompressedSize(entry.data.length);
+                zipEntry.setCrc(entry.crc);
+                zip.putNextEntry(zipEntry);
+                zip.write(entry.data);
+                zip.closeEntry();
+                written += entry.data.length;
+
+                manifest.append(entry.id).append(',').append(entry.seed).append(',').append(width).append(',').append(height).append(',')
+                        .append(entry.entrance).append(',').append(entry.exit).append(',').append(entry.items)
+                        .append(',').append(entry.nanos / 1000000).append(',').append(entry.data.length).append('\n');
+            }
+
+            zip.putNextEntry(new ZipEntry("manifest.csv"));
+            zip.write(manifest.toString().getBytes(StandardCharsets.UTF_8));
+            zip.closeEntry();
+            return written;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static long boardSeed(long seed, int id) {
+        return new SplittableRandom(seed + id * 0x9E3779B97F4A7C15L).nextLong();
+    }
+
+    // Each board seeds its own generator, and the worker compresses it before handing it over.
+    private static Callable<Entry> task(final int id, final long seed, final int width, final int height,
+            final int cellSize) {
+        return new Callable<Entry>() {
+            @Override
+            public Entry call() throws IOException {
+                long start = System.nanoTime();
+                Board board = new Board(width, height, cellSize, seed, TaskProgress.NONE);
+                long nanos = System.nanoTime() - start;
+
+                byte[] data = BoardFile.toBytes(board, true);
+                CRC32 crc = new CRC32();
+                crc.update(data, 0, data.length);
+
+                BoardGrid grid = board.getGrid();
+                int items = 0;
+                for (int i = 0; i < grid.size(); i++) {
+                    if (grid.getItem(i) != ItemType.NONE.ordinal()) {
+                        items++;
+                    }
+                }
+                return new Entry(id, seed, data, crc.getValue(), board.getEntrance(), board.getExit(), items, nanos);
+            }
+        };
+    }
+
+    private static final class Entry {
+
+        final int id;
+        final long seed;
+        final byte[] data;
+        final long crc;
+        final int entrance;
+        final int exit;
+        final int items;
+        final long nanos;
+
+        Entry(int id, long seed, byte[] data, long crc, int entrance, int exit, int items, long nanos) {
+            this.id = id;
+            this.seed = seed;
+            this.data = data;
+            this.crc = crc;
+            this.entrance = entrance;
+            this.exit = exit;
+            this.items = items;
+            this.nanos = nanos;
+        }
+    }
+}
+
+// Writes a board as a PNG without holding the whole image: horizontal bands are drawn and deflated in
+// parallel, each as a raw deflate segment ending in a sync flush, and appended in order. Segments
+// ending on a byte boundary concatenate into one valid zlib stream; the Adler-32 trailer is combined
+// from the per-band checksums.
+final class PngExporter {
+
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    // Pixels per band; bands of very wide boards get shorter so each stays near this size.
+    private static final int BAND_PIXELS = 4 << 20;
+    private static final int ADLER_BASE = 65521;
+    private static final int FILTER_SUB = 1;
+
+    private PngExporter() {
+    }
+
+    // Usage: export board.gbrd image.png [threads]
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: Main export board.gbrd image.png [threads]");
+            System.exit(2);
+        }
+        System.setProperty("java.awt.headless", "true");
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+        Board board = BoardFile.read(Paths.get(args[0]));
+        long start = System.nanoTime();
+        long bytes = export(board, Paths.get(args[1]), threads, TaskProgress.NONE);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long pixels = (long) imageWidth(board) * imageHeight(board);
+        System.out.printf("%dx%d px on %d threads in %.2f s: %.1f Mpx/s, %.1f MB written to %s%n",
+                imageWidth(board), imageHeight(board), threads, seconds, pixels / seconds / 1e6, bytes / 1e6,
+                args[1]);
+    }
+
+    static int imageWidth(Board board) {
+        return board.getWidth() * board.getCellSize() + 1;
+    }
+
+    static int imageHeight(Board board) {
+        return board.getHeight() * board.getCellSize() + 1;
+    }
+
+    public static long export(final Board board, Path path, int threads, TaskProgress progress)
+            throws IOException, InterruptedException {
+        final int width = imageWidth(board);
+        final int height = imageHeight(board);
+        if ((long) board.getWidth() * board.getCellSize() + 1 > (Integer.MAX_VALUE - 1) / 3
+                || (long) board.getHeight() * board.getCellSize() + 1 > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Image too large: " + board.getWidth() + "x" + board.getHeight()
+                    + " cells of " + board.getCellSize() + " px");
+        }
+        final int bandRows = Math.max(1, Math.min(height, BAND_PIXELS / width));
+        int bands = (height + bandRows - 1) / bandRows;
+
+        // Painters and buffers are per worker thread: flyweights are mutated while drawing.
+        final ThreadLocal<Band> workers = new ThreadLocal<Band>() {
+            @Override
+            protected Band initialValue() {
+                return new Band(board, width, bandRows);
+            }
+        };
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(path), 1 << 16)) {
+            ByteBuffer header = ByteBuffer.allocate(13);
+            header.putInt(width).putInt(height).put((byte) 8).put((byte) 2).put((byte) 0).put((byte) 0)
+                    .put((byte) 0);
+            out.write(SIGNATURE);
+            writeChunk(out, "IHDR", header.array(), 0, header.capacity());
+            byte[] zlibHeader = {0x78, (byte) 0x9C};
+            writeChunk(out, "IDAT", zlibHeader, 0, zlibHeader.length);
+
+            // Bands finish out of order but are written in order; a bounded window keeps memory flat.
+            int window = Math.max(2, threads * 2);
+            long adler = 1;
+            int submitted = 0;
+            for (int band = 0; band < bands; band++) {
+                while (submitted < bands && submitted < band + window) {
+                    final int y = submitted * bandRows;
+                    final int rows = Math.min(bandRows, height - y);
+                    final boolean last = submitted == bands - 1;
+                    pending.add(pool.submit(new Callable<byte[]>() {
+                        @Override
+                        public byte[] call() {
+                            return workers.get().render(y, rows, last);
+                        }
+                    }));
+                    submitted++;
+                }
+
+                byte[] data;
+                try {
+                    data = pending.poll().get();
+                } catch (ExecutionException e) {
+                    throw new IOException("Band rendering failed", e.getCause());
+                }
+                // The band's Adler-32 and raw length lead its compressed bytes.
+                ByteBuffer meta = ByteBuffer.wrap(data);
+                long bandAdler = meta.getInt() & 0xFFFFFFFFL;
+                long rawLength = meta.getLong();
+                adler = combineAdler(adler, bandAdler, rawLength);
+                writeChunk(out, "IDAT", data, 12, data.length - 12);
+                progress.update(band + 1, bands);
+            }
+
+            byte[] trailer = ByteBuffer.allocate(4).putInt((int) adler).array();
+            writeChunk(out, "IDAT", trailer, 0, trailer.length);
+            writeChunk(out, "IEND", new byte[0], 0, 0);
+        } finally {
+            pool.shutdownNow();
+        }
+        return Files.size(path);
+    }
+
+    private static void writeChunk(OutputStream out, String type, byte[] data, int offset, int length)
+            throws IOException {
+        byte[] name = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(name);
+        crc.update(data, offset, length);
+        ByteBuffer header = ByteBuffer.allocate(8).putInt(length).put(name);
+        out.write(header.array());
+        out.write(data, offset, length);
+        out.write(ByteBuffer.allocate(4).putInt((int) crc.getValue()).array());
+    }
+
+    // Adler-32 of two concatenated inputs from the checksum of each, as zlib's adler32_combine.
+    static long combineAdler(long adler1, long adler2, long length2) {
+        long rem = length2 % ADLER_BASE;
+        long sum1 = adler1 & 0xFFFF;
+        long sum2 = rem * sum1 % ADLER_BASE;
+        sum1 += (adler2 & 0xFFFF) + ADLER_BASE - 1;
+        sum2 += ((adler1 >>> 16) & 0xFFFF) + ((adler2 >>> 16) & 0xFFFF) + ADLER_BASE - rem;
+        if (sum1 >= ADLER_BASE) {
+            sum1 -= ADLER_BASE;
+        }
+        if (sum1 >= ADLER_BASE) {
+            sum1 -= ADLER_BASE;
+        }
+        if (sum2 >= ADLER_BASE << 1) {
+            sum2 -= ADLER_BASE << 1;
+        }
+        if (sum2 >= ADLER_BASE) {
+            sum2 -= ADLER_BASE;
+        }
+        return sum1 | (sum2 << 16);
+    }
+
+    // One worker's reusable state: its painter, band image, scanline buffer and deflater.
+    private static final class Band {
+
+        private final BoardPainter painter;
+        private final BufferedImage image;
+        private final int[] pixels;
+        private final int width;
+        private final byte[] raw;
+        private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        private final Adler32 adler = new Adler32();
+        private byte[] compressed = new byte[1 << 16];
+
+        Band(Board board, int width, int rows) {
+            this.painter = board.newPainter();
+            this.width = width;
+            this.image = new BufferedImage(width, rows, BufferedImage.TYPE_INT_RGB);
+            this.pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+            this.raw = new byte[(1 + width * 3) * rows];
+        }
+
+        byte[] render(int y, int rows, boolean last) {
+            Graphics2D g2d = image.createGraphics();
+            try {
+                g2d.setColor(Color.LIGHT_GRAY);
+                g2d.fillRect(0, 0, width, rows);
+                g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+                g2d.clipRect(0, 0, width, rows);
+                g2d.translate(0, -y);
+                painter.draw(g2d, null);
+            } finally {
+                g2d.dispose();
+            }
+
+            // Sub filter: each byte minus the same channel of the pixel to its left.
+            int length = 0;
+            for (int row = 0; row < rows; row++) {
+                raw[length++] = FILTER_SUB;
+                int previous = 0;
+                for (int x = 0, i = row * width; x < width; x++, i++) {
+                    int rgb = pixels[i];
+                    raw[length++] = (byte) ((rgb >>> 16) - (previous >>> 16));
+                    raw[length++] = (byte) ((rgb >>> 8) - (previous >>> 8));
+                    raw[length++] = (byte) (rgb - previous);
+                    previous = rgb;
+                }
+            }
+
+            adler.reset();
+            adler.update(raw, 0, length);
+            deflater.reset();
+            deflater.setInput(raw, 0, length);
+            if (last) {
+                deflater.finish();
+            }
+            int size = 12;
+            while (true) {
+                if (size == compressed.length) {
+                    compressed = Arrays.copyOf(compressed, compressed.length * 2);
+                }
+                int space = compressed.length - size;
+                int n = deflater.deflate(compressed, size, space, last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+                size += n;
+                if (last ? deflater.finished() : n < space) {
+                    break;
+                }
+            }
+
+            byte[] data = Arrays.copyOf(compressed, size);
+            ByteBuffer.wrap(data).putInt((int) adler.getValue()).putLong(length);
+            return data;
+        }
+    }
+}
+
+// Headless multi-game server over TCP. Each connection is one GameSession on a board from a shared,
+// read-only pool, served by its own thread: a virtual thread where the runtime has them, else a pooled
+// platform thread. Sessions share nothing mutable, so moves never contend for a lock.
+//
+// Protocol: on connect the server sends "BOARD id width height x y\n". The client then sends single
+// bytes: N, E, S or W to move, ? to query, Q to quit; whitespace is ignored. Every command except Q
+// gets "x y score steps OK|BLOCKED|DONE\n".
+final class GameServer implements Closeable {
+
+    // After a failed accept, such as when out of file descriptors, the acceptor backs off, doubling up
+    // to the maximum, and reports failures at most once per interval.
+    private static final long MIN_BACKOFF_MILLIS = 10;
+    private static final long MAX_BACKOFF_MILLIS = 1000;
+    private static final long LOG_INTERVAL_NANOS = 10_000_000_000L;
+
+    private final ServerSocket server;
+    private final Board[] boards;
+    private final ExecutorService sessions = newThreadPerTaskExecutor();
+    private final AtomicLong connections = new AtomicLong();
+    private final Thread acceptor;
+
+    public GameServer(int port, Board[] boards) throws IOException {
+        this.boards = boards;
+        this.server = new ServerSocket(port, 1024);
+        this.acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        }, "game-server-accept");
+        acceptor.start();
+    }
+
+    // Usage: serve [port [boards [width height [seed]]]]
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 7777;
+        int count = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        int width = args.length > 3 ? Integer.parseInt(args[2]) : Board.DEFAULT_SIZE;
+        int height = args.length > 3 ? Integer.parseInt(args[3]) : Board.DEFAULT_SIZE;
+        long seed = args.length > 4 ? Long.parseLong(args[4]) : System.nanoTime();
+
+        GameServer server = new GameServer(port, generate(count, width, height, seed));
+        System.out.printf("Serving %d boards (%dx%d) on port %d with %s%n", count, width, height,
+                server.getPort(), virtualThreads() ? "virtual threads" : "platform threads");
+        server.acceptor.join();
+    }
+
+    public static Board[] generate(int count, int width, int height, long seed) {
+        Board[] boards = new Board[count];
+        SplittableRandom random = new SplittableRandom(seed);
+        for (int i = 0; i < count; i++) {
+            boards[i] = new Board(width, height, Board.DEFAULT_CELL_SIZE, random.nextLong(), TaskProgress.NONE);
+        }
+        return boards;
+    }
+
+    // Executors.newVirtualThreadPerTaskExecutor() is looked up reflectively so older runtimes still run.
+    static ExecutorService newThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    static boolean virtualThreads() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    public long getConnections() {
+        return connections.get();
+    }
+
+    private void accept() {
+        long backoff = 0;
+        long failures = 0;
+        long lastLog = System.nanoTime() - LOG_INTERVAL_NANOS;
+        while (!server.isClosed()) {
+            final Socket socket;
+            try {
+                socket = server.accept();
+            } catch (IOException e) {
+                if (server.isClosed()) {
+                    break;
+                }
+                failures++;
+                if (System.nanoTime() - lastLog >= LOG_INTERVAL_NANOS) {
+                    System.err.println("Accept failed" + (failures > 1 ? " " + failures + " times" : "") + ": " + e);
+                    lastLog = System.nanoTime();
+                    failures = 0;
+                }
+                backoff = Math.min(MAX_BACKOFF_MILLIS, Math.max(MIN_BACKOFF_MILLIS, backoff * 2));
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+                continue;
+            }
+            backoff = 0;
+            final long id = connections.getAndIncrement();
+            try {
+                sessions.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        serve(socket, (int) (id % boards.length));
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                closeQuietly(socket);
+            }
+        }
+    }
+
+    private void serve(Socket socket, int boardId) {
+        try (Socket s = socket) {
+            s.setTcpNoDelay(true);
+            InputStream in = new BufferedInputStream(s.getInputStream(), 256);
+            OutputStream out = new BufferedOutputStream(s.getOutputStream(), 256);
+            Board board = boards[boardId];
+            GameSession session = GameSession.shared(board);
+            Reply reply = new Reply();
+
+            reply.text("BOARD ").number(boardId).space().number(board.getWidth()).space().number(board.getHeight())
+                    .space().number(board.getGrid().xOf(session.getPosition())).space()
+                    .number(board.getGrid().yOf(session.getPosition())).newline().writeTo(out);
+            out.flush();
+
+            int command;
+            while ((command = in.read()) >= 0) {
+                boolean moved = true;
+                switch (command) {
+                    case 'N':
+                        moved = session.move(Direction.NORTH);
+                        break;
+                    case 'E':
+                        moved = session.move(Direction.EAST);
+                        break;
+                    case 'S':
+                        moved = session.move(Direction.SOUTH);
+                        break;
+                    case 'W':
+                        moved = session.move(Direction.WEST);
+                        break;
+                    case '?':
+                        break;
+                    case 'Q':
+                        return;
+                    default:
+                        continue;
+                }
+                BoardGrid grid = board.getGrid();
+                reply.number(grid.xOf(session.getPosition())).space().number(grid.yOf(session.getPosition())).space()
+                        .number(session.getScore()).space().number(session.getSteps()).space()
+                        .text(session.isFinished() ? "DONE" : moved ? "OK" : "BLOCKED").newline().writeTo(out);
+                // Commands already buffered are answered together.
+                if (in.available() == 0) {
+                    out.flush();
+                }
+            }
+        } catch (IOException e) {
+            // The client went away; its session simply ends.
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Already unusable.
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+        sessions.shutdownNow();
+    }
+
+    // A reply line assembled in a reused buffer, without building strings per move.
+    private static final class Reply {
+
+        private final byte[] buffer = new byte[96];
+        private int length;
+
+        Reply text(String text) {
+            for (int i = 0; i < text.length(); i++) {
+                buffer[length++] = (byte) text.charAt(i);
+            }
+            return this;
+        }
+
+        Reply number(int value) {
+            if (value < 0) {
+                buffer[length++] = '-';
+                value = -value;
+            }
+            int start = length;
+            do {
+                buffer[length++] = (byte) ('0' + value % 10);
+                value /= 10;
+            } while (value != 0);
+            for (int i = start, j = length - 1; i < j; i++, j--) {
+                byte b = buffer[i];
+                buffer[i] = buffer[j];
+                buffer[j] = b;
+            }
+            return this;
+        }
+
+        Reply space() {
+            buffer[length++] = ' ';
+            return this;
+        }
+
+        Reply newline() {
+            buffer[length++] = '\n';
+            return this;
+        }
+
+        void writeTo(OutputStream out) throws IOException {
+            out.write(buffer, 0, length);
+            length = 0;
+        }
+    }
+}
+
+// Drives a GameServer with many concurrent sessions, each sending random moves and timing every
+// round trip, then reports throughput and latency percentiles.
+final class LoadGenerator {
+
+    private LoadGenerator() {
+    }
+
+    // Usage: loadtest [host [port [sessions [moves]]]]; without a host an in-process server is started.
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        String host = args.length > 0 ? args[0] : null;
+        int sessions = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+        int moves = args.length > 3 ? Integer.parseInt(args[3]) : 200;
+
+        GameServer local = null;
+        int port;
+        if (host == null || host.equals("local")) {
+            local = new GameServer(0, GameServer.generate(64, Board.DEFAULT_SIZE, Board.DEFAULT_SIZE, 1));
+            host = "127.0.0.1";
+            port = local.getPort();
+        } else {
+            port = args.length > 1 ? Integer.parseInt(args[1]) : 7777;
+        }
+        try {
+            run(host, port, sessions, moves, System.out);
+        } finally {
+            if (local != null) {
+                local.close();
+            }
+        }
+    }
+
+    public static void run(final String host, final int port, int sessions, final int moves, PrintStream out)
+            throws InterruptedException, ExecutionException {
+        if (sessions < 1 || moves < 1) {
+            throw new IllegalArgumentException("Need at least one session and one move: " + sessions + ", " + moves);
+        }
+        ExecutorService clients = GameServer.newThreadPerTaskExecutor();
+        List<Future<long[]>> results = new ArrayList<>();
+        final CountDownLatch connected = new CountDownLatch(sessions);
+        long start;
+        try {
+            for (int i = 0; i < sessions; i++) {
+                final long seed = i;
+                results.add(clients.submit(new Callable<long[]>() {
+                    @Override
+                    public long[] call() throws IOException, InterruptedException {
+                        return drive(host, port, moves, seed, connected);
+                    }
+                }));
+            }
+            connected.await();
+            start = System.nanoTime();
+
+            long[] all = new long[sessions * moves];
+            int count = 0;
+            for (Future<long[]> result : results) {
+                long[] latencies = result.get();
+                System.arraycopy(latencies, 0, all, count, latencies.length);
+                count += latencies.length;
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            Arrays.sort(all, 0, count);
+            out.printf("%d sessions, %d moves in %.2f s: %.0f moves/s (%s)%n", sessions, count, seconds,
+                    count / seconds, GameServer.virtualThreads() ? "virtual threads" : "platform threads");
+            out.printf("latency us: p50 %.1f  p99 %.1f  p99.9 %.1f  max %.1f%n", percentile(all, count, 50) / 1e3,
+                    percentile(all, count, 99) / 1e3, percentile(all, count, 99.9) / 1e3, all[count - 1] / 1e3);
+        } finally {
+            clients.shutdownNow();
+        }
+    }
+
+    // Connects, waits until every session is connected, then plays random moves and times each reply.
+    // A session that fails to connect still counts down, so the others go ahead and run() reports it.
+    private static long[] drive(String host, int port, int moves, long seed, CountDownLatch connected)
+            throws IOException, InterruptedException {
+        boolean counted = false;
+        try (Socket socket = new Socket(host, port)) {
+            socket.setTcpNoDelay(true);
+            InputStream in = new BufferedInputStream(socket.getInputStream(), 256);
+            OutputStream out = socket.getOutputStream();
+            readLine(in);
+            counted = true;
+            connected.countDown();
+            connected.await();
+
+            SplittableRandom random = new SplittableRandom(seed);
+            byte[] commands = {'N', 'E', 'S', 'W'};
+            long[] latencies = new long[moves];
+            for (int i = 0; i < moves; i++) {
+                long start = System.nanoTime();
+                out.write(commands[random.nextInt(commands.length)]);
+                out.flush();
+                readLine(in);
+                latencies[i] = System.nanoTime() - start;
+            }
+            out.write('Q');
+            out.flush();
+            return latencies;
+        } finally {
+            if (!counted) {
+                connected.countDown();
+            }
+        }
+    }
+
+    private static void readLine(InputStream in) throws IOException {
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0) {
+                throw new EOFException("Server closed the session");
+            }
+        }
+    }
+
+    private static long percentile(long[] sorted, int count, double percentile) {
+        return sorted[Math.min(count - 1, (int) Math.ceil(percentile / 100 * count) - 1)];
+    }
+}
+
+// Thousands of agents wandering one board at once, for load-testing and balancing it. Agents only
+// interact through items: each item goes to whichever agent claims its cell first, by compare-and-set
+// on a shared claim bitmap, so no worker ever takes a lock and the board itself is only read. Agents
+// are split into one contiguous slice per worker, each with its own random stream and counters, and
+// workers do not wait for each other between steps.
+final class AgentSimulation {
+
+    public static final class Result {
+
+        private final int threads;
+        private final long moves;
+        private final long claims;
+        private final long score;
+        private final long nanos;
+
+        Result(int threads, long moves, long claims, long score, long nanos) {
+            this.threads = threads;
+            this.moves = moves;
+            this.claims = claims;
+            this.score = score;
+            this.nanos = nanos;
+        }
+
+        public int getThreads() {
+            return threads;
+        }
+
+        public long getMoves() {
+            return moves;
+        }
+
+        public long getClaims() {
+            return claims;
+        }
+
+        public long getScore() {
+            return score;
+        }
+
+        public long getNanos() {
+            return nanos;
+        }
+
+        public double getMovesPerSecond() {
+            return moves * 1e9 / Math.max(1, nanos);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d threads: %d moves in %.1f ms, %.2f M moves/s, %d items claimed, score %d",
+                    threads, moves, nanos / 1e6, getMovesPerSecond() / 1e6, claims, score);
+        }
+    }
+
+    private final BoardGrid grid;
+    private final int[] offsets;
+    private final int[] positions;
+    // Direction ordinal of each agent's last move; agents only turn back at dead ends.
+    private final int[] headings;
+    private final int[] scores;
+    // One bit per cell, set once the cell's item is taken.
+    private final AtomicLongArray claimed;
+    private final SplittableRandom random;
+
+    // Agents start on random interior cells.
+    public AgentSimulation(Board board, int agents, long seed) {
+        this.grid = board.getGrid();
+        this.offsets = BoardSolver.offsets(grid);
+        this.positions = new int[agents];
+        this.headings = new int[agents];
+        this.scores = new int[agents];
+        this.claimed = new AtomicLongArray((grid.size() + 63) >>> 6);
+        this.random = new SplittableRandom(seed);
+        int innerWidth = grid.getWidth() - 2;
+        int innerHeight = grid.getHeight() - 2;
+        for (int a = 0; a < agents; a++) {
+            positions[a] = grid.index(1 + random.nextInt(innerWidth), 1 + random.nextInt(innerHeight));
+            headings[a] = random.nextInt(Direction.VALUES.length);
+        }
+    }
+
+    public int getAgents() {
+        return positions.length;
+    }
+
+    public int getPosition(int agent) {
+        return positions[agent];
+    }
+
+    public int getScore(int agent) {
+        return scores[agent];
+    }
+
+    public boolean isClaimed(int cell) {
+        return (claimed.get(cell >>> 6) & (1L << cell)) != 0;
+    }
+
+    // Takes the cell's item for the caller; false when another agent got there first.
+    boolean claim(int cell) {
+        int word = cell >>> 6;
+        long bit = 1L << cell;
+        long old;
+        do {
+            old = claimed.get(word);
+            if ((old & bit) != 0) {
+                return false;
+            }
+        } while (!claimed.compareAndSet(word, old, old | bit));
+        return true;
+    }
+
+    public Result run(int steps) {
+        return run(steps, Runtime.getRuntime().availableProcessors());
+    }
+
+    // Moves every agent the given number of steps. Throws CancellationException if the calling thread
+    // is interrupted.
+    public Result run(final int steps, int threads) {
+        int slices = Math.max(1, Math.min(threads, positions.length));
+        long start = System.nanoTime();
+        long[] total = new long[3];
+        if (slices == 1) {
+            total = walk(0, positions.length, steps, random.split());
+        } else {
+            ExecutorService pool = Executors.newFixedThreadPool(slices);
+            try {
+                List<Future<long[]>> parts = new ArrayList<>();
+                for (int s = 0; s < slices; s++) {
+                    final int from = (int) ((long) positions.length * s / slices);
+                    final int to = (int) ((long) positions.length * (s + 1) / slices);
+                    final SplittableRandom sliceRandom = random.split();
+                    parts.add(pool.submit(new Callable<long[]>() {
+                        @Override
+                        public long[] call() {
+                            return walk(from, to, steps, sliceRandom);
+                        }
+                    }));
+                }
+                for (Future<long[]> part : parts) {
+                    long[] counts = part.get();
+                    for (int i = 0; i < total.length; i++) {
+                        total[i] += counts[i];
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CancellationException();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Simulation failed", e.getCause());
+            } finally {
+                pool.shutdownNow();
+            }
+        }
+        return new Result(slices, total[0], total[1], total[2], System.nanoTime() - start);
+    }
+
+    // Steps a slice of agents in lockstep with each other; returns its moves, claims and score.
+    private long[] walk(int from, int to, int steps, SplittableRandom random) {
+        long moves = 0;
+        long claims = 0;
+        long score = 0;
+        for (int step = 0; step < steps; step++) {
+            for (int a = from; a < to; a++) {
+                int cell = positions[a];
+                int open = openMask(cell);
+                int back = 1 << ((headings[a] + 2) & 3);
+                if ((open & ~back) != 0) {
+                    open &= ~back;
+                }
+                if (open == 0) {
+                    continue;
+                }
+                for (int skip = random.nextInt(Integer.bitCount(open)); skip > 0; skip--) {
+                    open &= open - 1;
+                }
+                int direction = Integer.numberOfTrailingZeros(open);
+                int next = cell + offsets[direction];
+                positions[a] = next;
+                headings[a] = direction;
+                moves++;
+                int item = grid.getItem(next);
+                if (item != ItemType.NONE.ordinal() && claim(next)) {
+                    int value = ItemType.scoreOf(item);
+                    scores[a] += value;
+                    score += value;
+                    claims++;
+                }
+            }
+        }
+        return new long[] {moves, claims, score};
+    }
+
+    // Directions whose wall is open from both sides onto a board cell, so doors and one-sided edits are not passed.
+    private int openMask(int cell) {
+        int walls = grid.getWalls(cell);
+        int open = 0;
+        for (int d = 0; d < offsets.length; d++) {
+            int other = cell + offsets[d];
+            if ((walls & (1 << d)) == 0 && (grid.getWalls(other) & (1 << ((d + 2) & 3))) == 0
+                    && grid.getKind(other) == CellKind.BOARD.ordinal()) {
+                open |= 1 << d;
+            }
+        }
+        return open;
+    }
+
+    // Usage: Main simulate board.gbrd [agents [steps [threads]]]
+    // Runs a fresh simulation for each thread count from 1 up to the given one, doubling, to show scaling.
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: Main simulate board.gbrd [agents [steps [threads]]]");
+            System.exit(2);
+        }
+        System.setProperty("java.awt.headless", "true");
+        int agents = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+        int steps = args.length > 2 ? Integer.parseInt(args[2]) : 1_000;
+        int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+
+        Board board = BoardFile.read(Paths.get(args[0]));
+        for (int t = 1; ; t = Math.min(t * 2, threads)) {
+            System.out.println(new AgentSimulation(board, agents, 1).run(steps, t));
+            if (t == threads) {
+                break;
+            }
+        }
+    }
+}
+
+// Process-wide timers and counters, published over JMX as gameboard:type=BoardMetrics and mirrored as
+// JFR events. Recording is a few atomic updates, cheap enough to leave on everywhere.
+final class BoardMetrics implements DynamicMBean {
+
+    public static final BoardMetrics INSTANCE = new BoardMetrics();
+    public static final String OBJECT_NAME = "gameboard:type=BoardMetrics";
+
+    private static final int FRAME_SAMPLES = 1024;
+    private static final String[] LONG_ATTRIBUTES = {"BoardsGenerated", "FramesPainted", "LastCellsDrawn", "Saves",
+            "BytesSaved", "Loads", "BytesLoaded"};
+    private static final String[] MILLIS_ATTRIBUTES = {"LastInitMillis", "LastItemsMillis", "LastMazeMillis",
+            "LastFieldMillis", "FrameP50Millis", "FrameP99Millis", "LastSaveMillis", "LastLoadMillis"};
+
+    private final AtomicLong boardsGenerated = new AtomicLong();
+    private final AtomicLong saves = new AtomicLong();
+    private final AtomicLong bytesSaved = new AtomicLong();
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong bytesLoaded = new AtomicLong();
+    private volatile long lastInitNanos;
+    private volatile long lastItemsNanos;
+    private volatile long lastMazeNanos;
+    private volatile long lastFieldNanos;
+    private volatile long lastSaveNanos;
+    private volatile long lastLoadNanos;
+    private volatile long lastCellsDrawn;
+
+    // Recent frame times in a ring; guarded by this.
+    private final long[] frames = new long[FRAME_SAMPLES];
+    private final long[] sorted = new long[FRAME_SAMPLES];
+    private long framesPainted;
+
+    private BoardMetrics() {
+    }
+
+    // Registers with the platform MBean server once; later calls and failures are ignored.
+    public static void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(INSTANCE, name);
+            }
+        } catch (JMException e) {
+            System.err.println("Board metrics not registered: " + e);
+        }
+    }
+
+    void generated(Board board) {
+        boardsGenerated.incrementAndGet();
+        lastInitNanos = board.getInitNanos();
+        lastItemsNanos = board.getItemNanos();
+        lastMazeNanos = board.getMazeNanos();
+        lastFieldNanos = board.getFieldNanos();
+
+        GenerateEvent event = new GenerateEvent();
+        if (event.shouldCommit()) {
+            event.width = board.getWidth();
+            event.height = board.getHeight();
+            event.algorithm = String.valueOf(board.getMazeAlgorithm());
+            event.initNanos = board.getInitNanos();
+            event.itemsNanos = board.getItemNanos();
+            event.mazeNanos = board.getMazeNanos();
+            event.fieldNanos = board.getFieldNanos();
+            event.commit();
+        }
+    }
+
+    void saved(long bytes, long nanos) {
+        saves.incrementAndGet();
+        bytesSaved.addAndGet(bytes);
+        lastSaveNanos = nanos;
+
+        FileEvent event = new SaveEvent();
+        if (event.shouldCommit()) {
+            event.bytes = bytes;
+            event.nanos = nanos;
+            event.commit();
+        }
+    }
+
+    void loaded(long bytes, long nanos) {
+        loads.incrementAndGet();
+        bytesLoaded.addAndGet(bytes);
+        lastLoadNanos = nanos;
+
+        FileEvent event = new LoadEvent();
+        if (event.shouldCommit()) {
+            event.bytes = bytes;
+            event.nanos = nanos;
+            event.commit();
+        }
+    }
+
+    synchronized void painted(long nanos, long cells) {
+        frames[(int) (framesPainted++ % FRAME_SAMPLES)] = nanos;
+        lastCellsDrawn = cells;
+    }
+
+    public synchronized long getFramesPainted() {
+        return framesPainted;
+    }
+
+    public long getLastCellsDrawn() {
+        return lastCellsDrawn;
+    }
+
+    // Percentile of the recent frame times in nanoseconds, or 0 before the first frame.
+    public synchronized long getFramePercentile(double percentile) {
+        int count = (int) Math.min(framesPainted, FRAME_SAMPLES);
+        if (count == 0) {
+            return 0;
+        }
+        System.arraycopy(frames, 0, sorted, 0, count);
+        Arrays.sort(sorted, 0, count);
+        return sorted[Math.min(count - 1, (int) Math.ceil(percentile / 100 * count) - 1)];
+    }
+
+    public synchronized void reset() {
+        boardsGenerated.set(0);
+        saves.set(0);
+        bytesSaved.set(0);
+        loads.set(0);
+        bytesLoaded.set(0);
+        lastInitNanos = 0;
+        lastItemsNanos = 0;
+        lastMazeNanos = 0;
+        lastFieldNanos = 0;
+        lastSaveNanos = 0;
+        lastLoadNanos = 0;
+        framesPainted = 0;
+        lastCellsDrawn = 0;
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        switch (attribute) {
+            case "BoardsGenerated":
+                return boardsGenerated.get();
+            case "FramesPainted":
+                return getFramesPainted();
+            case "LastCellsDrawn":
+                return lastCellsDrawn;
+            case "Saves":
+                return saves.get();
+            case "BytesSaved":
+                return bytesSaved.get();
+            case "Loads":
+                return loads.get();
+            case "BytesLoaded":
+                return bytesLoaded.get();
+            case "LastInitMillis":
+                return lastInitNanos / 1e6;
+            case "LastItemsMillis":
+                return lastItemsNanos / 1e6;
+            case "LastMazeMillis":
+                return lastMazeNanos / 1e6;
+            case "LastFieldMillis":
+                return lastFieldNanos / 1e6;
+            case "FrameP50Millis":
+                return getFramePercentile(50) / 1e6;
+            case "FrameP99Millis":
+                return getFramePercentile(99) / 1e6;
+            case "LastSaveMillis":
+                return lastSaveNanos / 1e6;
+            case "LastLoadMillis":
+                return lastLoadNanos / 1e6;
+            default:
+                throw new AttributeNotFoundException(attribute);
+        }
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        AttributeList list = new AttributeList();
+        for (String attribute : attributes) {
+            try {
+                list.add(new Attribute(attribute, getAttribute(attribute)));
+            } catch (AttributeNotFoundException e) {
+                // Unknown names are left out, as the interface allows.
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Read-only: " + attribute.getName());
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws ReflectionException {
+        if (actionName.equals("reset") && (params == null || params.length == 0)) {
+            reset();
+            return null;
+        }
+        throw new ReflectionException(new NoSuchMethodException(actionName));
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> attributes = new ArrayList<>();
+        for (String name : LONG_ATTRIBUTES) {
+            attributes.add(new MBeanAttributeInfo(name, "long", name, true, false, false));
+        }
+        for (String name : MILLIS_ATTRIBUTES) {
+            attributes.add(new MBeanAttributeInfo(name, "double", name, true, false, false));
+        }
+        MBeanOperationInfo reset = new MBeanOperationInfo("reset", "Zero the counters", new MBeanParameterInfo[0],
+                "void", MBeanOperationInfo.ACTION);
+        return new MBeanInfo(getClass().getName(), "Board generation, painting and file metrics",
+                attributes.toArray(new MBeanAttributeInfo[0]), null, new MBeanOperationInfo[]{reset}, null);
+    }
+}
+
+@Name("gameboard.Generate")
+@Label("Board Generation")
+@Category("Gameboard")
+class GenerateEvent extends jdk.jfr.Event {
+
+    @Label("Width")
+    int width;
+
+    @Label("Height")
+    int height;
+
+    @Label("Algorithm")
+    String algorithm;
+
+    @Label("Borders and Doors")
+    @Timespan
+    long initNanos;
+
+    @Label("Item Placement")
+    @Timespan
+    long itemsNanos;
+
+    @Label("Maze Carving")
+    @Timespan
+    long mazeNanos;
+
+    @Label("Distance Field")
+    @Timespan
+    long fieldNanos;
+}
+
+@Name("gameboard.Paint")
+@Label("Board Paint")
+@Category("Gameboard")
+class PaintEvent extends jdk.jfr.Event {
+
+    @Label("Cells Drawn")
+    long cells;
+}
+
+abstract class FileEvent extends jdk.jfr.Event {
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+    @Label("Duration")
+    @Timespan
+    long nanos;
+}
+
+@Name("gameboard.Save")
+@Label("Board Save")
+@Category("Gameboard")
+class SaveEvent extends FileEvent {
+}
+
+@Name("gameboard.Load")
+@Label("Board Load")
+@Category("Gameboard")
+class LoadEvent extends FileEvent {
+}
+
+class BoardRenderer {
+
+    public static final int TILE_SIZE = 256;
+
+    private static final int MAX_TILES = 128;
+    // Below this many screen pixels per cell, tiles show one sampled colour per pixel instead of drawn cells.
+    private static final double DETAIL_CELL_PIXELS = 4;
+
+    private final Color background;
+    private final Map<Long, BufferedImage> tiles;
+    private final ArrayList<BufferedImage> spareTiles = new ArrayList<>();
+    private final IntList dirty = new IntList();
+    private final int[] row = new int[TILE_SIZE];
+    private final int[] columnCells = new int[TILE_SIZE];
+
+    private Board board;
+    private double zoom = 1;
+    private long cellsDrawn;
+
+    public BoardRenderer(Color background) {
+        this.background = background;
+        this.tiles = new LinkedHashMap<Long, BufferedImage>(MAX_TILES, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, BufferedImage> eldest) {
+                if (size() > MAX_TILES) {
+                    spareTiles.add(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public Board getBoard() {
+        return board;
+    }
+
+    public void setBoard(Board board) {
+        this.board = board;
+        synchronized (dirty) {
+            dirty.clear();
+        }
+        clearTiles();
+    }
+
+    public double getZoom() {
+        return zoom;
+    }
+
+    public void setZoom(double zoom) {
+        if (zoom != this.zoom) {
+            this.zoom = zoom;
+            clearTiles();
+        }
+    }
+
+    public int getScaledWidth() {
+        return (int) Math.ceil((board.getWidth() * board.getCellSize() + 1) * zoom);
+    }
+
+    public int getScaledHeight() {
+        return (int) Math.ceil((board.getHeight() * board.getCellSize() + 1) * zoom);
+    }
+
+    public double getCellPixels() {
+        return board.getCellSize() * zoom;
+    }
+
+    // Screen-space area a change to the cell can affect, including the neighbours' shared wall lines.
+    public Rectangle getCellBounds(int index) {
+        BoardGrid grid = board.getGrid();
+        double cellPixels = getCellPixels();
+        int x0 = (int) Math.floor(grid.xOf(index) * cellPixels) - 2;
+        int y0 = (int) Math.floor(grid.yOf(index) * cellPixels) - 2;
+        int x1 = (int) Math.ceil((grid.xOf(index) + 1) * cellPixels + zoom) + 2;
+        int y1 = (int) Math.ceil((grid.yOf(index) + 1) * cellPixels + zoom) + 2;
+        return new Rectangle(x0, y0, x1 - x0, y1 - y0);
+    }
+
+    public void markDirty(int index) {
+        synchronized (dirty) {
+            dirty.add(index);
+        }
+    }
+
+    public void invalidate() {
+        clearTiles();
+    }
+
+    // Cells (or overview pixels) rendered into tiles by the last paint; cached tiles cost nothing.
+    public long getCellsDrawn() {
+        return cellsDrawn;
+    }
+
+    // Blits the tiles covering the given screen rectangle, rendering only the ones not cached yet.
+    public void paint(Graphics2D g2d, Rectangle area, GraphicsConfiguration gc) {
+        cellsDrawn = 0;
+        applyDirtyCells();
+
+        int tx0 = Math.max(area.x, 0) / TILE_SIZE;
+        int ty0 = Math.max(area.y, 0) / TILE_SIZE;
+        int tx1 = Math.min(area.x + area.width, getScaledWidth()) / TILE_SIZE;
+        int ty1 = Math.min(area.y + area.height, getScaledHeight()) / TILE_SIZE;
+        for (int ty = ty0; ty <= ty1; ty++) {
+            for (int tx = tx0; tx <= tx1; tx++) {
+                Long key = tileKey(tx, ty);
+                BufferedImage tile = tiles.get(key);
+                if (tile == null) {
+                    tile = newTile(gc);
+                    renderRegion(tile, tx, ty, tx * TILE_SIZE, ty * TILE_SIZE, TILE_SIZE, TILE_SIZE);
+                    tiles.put(key, tile);
+                }
+                g2d.drawImage(tile, tx * TILE_SIZE, ty * TILE_SIZE, null);
+            }
+        }
+    }
+
+    private static Long tileKey(int tx, int ty) {
+        return ((long) ty << 32) | (tx & 0xFFFFFFFFL);
+    }
+
+    private BufferedImage newTile(GraphicsConfiguration gc) {
+        if (!spareTiles.isEmpty()) {
+            return spareTiles.remove(spareTiles.size() - 1);
+        }
+        return gc != null ? gc.createCompatibleImage(TILE_SIZE, TILE_SIZE)
+                : new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_RGB);
+    }
+
+    private void clearTiles() {
+        spareTiles.addAll(tiles.values());
+        tiles.clear();
+    }
+
+    private void applyDirtyCells() {
+        int[] cells;
+        synchronized (dirty) {
+            if (dirty.isEmpty()) {
+                return;
+            }
+            cells = dirty.toArray();
+            dirty.clear();
+        }
+
+        for (int index : cells) {
+            Rectangle bounds = getCellBounds(index);
+            int tx0 = Math.max(bounds.x, 0) / TILE_SIZE;
+            int ty0 = Math.max(bounds.y, 0) / TILE_SIZE;
+            int tx1 = Math.max(bounds.x + bounds.width, 0) / TILE_SIZE;
+            int ty1 = Math.max(bounds.y + bounds.height, 0) / TILE_SIZE;
+            for (int ty = ty0; ty <= ty1; ty++) {
+                for (int tx = tx0; tx <= tx1; tx++) {
+                    BufferedImage tile = tiles.get(tileKey(tx, ty));
+                    if (tile != null) {
+                        renderRegion(tile, tx, ty, bounds.x, bounds.y, bounds.width, bounds.height);
+                    }
+                }
+            }
+        }
+    }
+
+    private void renderRegion(BufferedImage tile, int tx, int ty, int x, int y, int w, int h) {
+        Graphics2D g2d = tile.createGraphics();
+        g2d.translate(-tx * TILE_SIZE, -ty * TILE_SIZE);
+        g2d.clipRect(x, y, w, h);
+        g2d.setColor(background);
+        g2d.fillRect(x, y, w, h);
+
+        if (getCellPixels() >= DETAIL_CELL_PIXELS) {
+            g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g2d.scale(zoom, zoom);
+            board.draw(g2d, null);
+            double cell = getCellPixels();
+            Rectangle area = new Rectangle(tx * TILE_SIZE, ty * TILE_SIZE, TILE_SIZE, TILE_SIZE)
+                    .intersection(new Rectangle(x, y, w, h));
+            if (!area.isEmpty()) {
+                cellsDrawn += (long) (Math.ceil(area.width / cell) + 1) * (long) (Math.ceil(area.height / cell) + 1);
+            }
+        } else {
+            Rectangle area = new Rectangle(tx * TILE_SIZE, ty * TILE_SIZE, TILE_SIZE, TILE_SIZE)
+                    .intersection(new Rectangle(x, y, w, h));
+            renderOverview(tile, tx, ty, area);
+            if (!area.isEmpty()) {
+                cellsDrawn += (long) area.width * area.height;
+            }
+        }
+        g2d.dispose();
+    }
+
+    // Point-samples one cell per screen pixel, straight into the tile's rows.
+    private void renderOverview(BufferedImage tile, int tx, int ty, Rectangle area) {
+        BoardGrid grid = board.getGrid();
+        double cellsPerPixel = 1 / getCellPixels();
+        int maxX = getScaledWidth();
+        int maxY = getScaledHeight();
+
+        int count = 0;
+        for (int px = area.x; px < area.x + area.width && px < maxX; px++) {
+            columnCells[count++] = Math.min((int) ((px + 0.5) * cellsPerPixel), grid.getWidth() - 1);
+        }
+        if (count == 0) {
+            return;
+        }
+
+        for (int py = area.y; py < area.y + area.height && py < maxY; py++) {
+            int cellY = Math.min((int) ((py + 0.5) * cellsPerPixel), grid.getHeight() - 1);
+            int rowStart = grid.index(0, cellY);
+            for (int i = 0; i < count; i++) {
+                row[i] = board.getOverviewRgb(rowStart + columnCells[i]);
+            }
+            tile.setRGB(area.x - tx * TILE_SIZE, py - ty * TILE_SIZE, count, 1, row, 0, count);
+        }
+    }
+}
+
+class TaskStatusBar extends JPanel {
+
+    private final JLabel message = new JLabel(" ");
+    private final JProgressBar progressBar = new JProgressBar(0, 100);
+    private final JButton cancel = new JButton("Cancel");
+    private final List<SwingWorker<?, ?>> running = new ArrayList<>();
+
+    public TaskStatusBar() {
+        super(new BorderLayout(8, 0));
+        this.setBorder(BorderFactory.createEmptyBorder(2, 6, 2, 6));
+        this.add(message, BorderLayout.CENTER);
+        JPanel controls = new JPanel(new BorderLayout(4, 0));
+        controls.add(progressBar, BorderLayout.CENTER);
+        controls.add(cancel, BorderLayout.EAST);
+        this.add(controls, BorderLayout.EAST);
+
+        cancel.addActionListener(new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                if (!running.isEmpty()) {
+                    running.get(running.size() - 1).cancel(true);
+                }
+            }
+        });
+        update();
+    }
+
+    public void track(final String name, final SwingWorker<?, ?> task) {
+        running.add(task);
+        message.setText(name + "...");
+        task.addPropertyChangeListener(new PropertyChangeListener() {
+            @Override
+            public void propertyChange(PropertyChangeEvent e) {
+                if ("state".equals(e.getPropertyName()) && e.getNewValue() == SwingWorker.StateValue.DONE) {
+                    running.remove(task);
+                }
+                update();
+            }
+        });
+        update();
+    }
+
+    public void setMessage(String text) {
+        message.setText(text);
+    }
+
+    private void update() {
+        boolean busy = !running.isEmpty();
+        progressBar.setVisible(busy);
+        cancel.setVisible(busy);
+        if (busy) {
+            progressBar.setValue(running.get(running.size() - 1).getProgress());
+        }
+    }
+}
+
+class BoardPanel extends JPanel implements BoardListener, Scrollable {
+
+    private static final double ZOOM_STEP = 1.25;
+    private static final double MAX_ZOOM = 4;
+    private static final int MAX_VIEWPORT_WIDTH = 1024;
+    private static final int MAX_VIEWPORT_HEIGHT = 768;
+    // Zooming out stops once the whole board fits in this many pixels.
+    private static final double MIN_BOARD_PIXELS = 256;
+    private static final Color OVERLAY_COLOR = new Color(0, 0, 0, 170);
+    private static final Path SNAPSHOT_PATH = Paths.get("board.data");
+    private static final Path JOURNAL_PATH = Paths.get("board.journal");
+    // Clicks this close to a cell edge, as a fraction of the cell, toggle the wall instead of the item.
+    private static final double EDGE_FRACTION = 0.25;
+
+    private Board board;
+    private final BoardRenderer renderer;
+    private final TaskStatusBar statusBar = new TaskStatusBar();
+    private BoardTask<Board> generateTask;
+    private BoardTask<Void> saveTask;
+    private BoardTask<BoardJournal> loadTask;
+    private BoardTask<BoardJournal> journalTask;
+    private BoardTask<Void> compactTask;
+    // Design mode edits go through the journal, which exists once the board has a snapshot on disk.
+    private BoardJournal journal;
+    private boolean designMode;
+    private Point dragStart;
+    private boolean overlay;
+
+    public BoardPanel() {
+        this(new Board());
+    }
+
+    public BoardPanel(Board board) {
+        this.setBackground(Color.LIGHT_GRAY);
+        this.renderer = new BoardRenderer(getBackground());
+        setBoard(board);
+
+        MouseAdapter mouse = new MouseAdapter() {
+            @Override
+            public void mousePressed(MouseEvent e) {
+                if (designMode && SwingUtilities.isLeftMouseButton(e)) {
+                    designClick(e.getPoint(), e.isShiftDown());
+                } else {
+                    dragStart = e.getPoint();
+                }
+            }
+
+            @Override
+            public void mouseDragged(MouseEvent e) {
+                if (dragStart != null) {
+                    Rectangle view = getVisibleRect();
+                    view.translate(dragStart.x - e.getX(), dragStart.y - e.getY());
+                    scrollRectToVisible(view);
+                }
+            }
+
+            @Override
+            public void mouseReleased(MouseEvent e) {
+                dragStart = null;
+            }
+
+            @Override
+            public void mouseWheelMoved(MouseWheelEvent e) {
+                if (e.isControlDown()) {
+                    zoomBy(Math.pow(ZOOM_STEP, -e.getPreciseWheelRotation()), e.getPoint());
+                } else {
+                    Container scrollPane = SwingUtilities.getAncestorOfClass(JScrollPane.class, BoardPanel.this);
+                    if (scrollPane != null) {
+                        scrollPane.dispatchEvent(SwingUtilities.convertMouseEvent(BoardPanel.this, e, scrollPane));
+                    }
+                }
+            }
+        };
+        addMouseListener(mouse);
+        addMouseMotionListener(mouse);
+        addMouseWheelListener(mouse);
+    }
+
+    public Board getBoard() {
+        return board;
+    }
+
+    private void setBoard(Board board) {
+        if (this.board != null) {
+            this.board.removeBoardListener(this);
+        }
+        if (journal != null && journal.getBoard() != board) {
+            closeJournal();
+        }
+        this.board = board;
+        board.addBoardListener(this);
+
+        renderer.setBoard(board);
+        renderer.setZoom(Math.max(renderer.getZoom(), getMinZoom()));
+        updatePreferredSize();
+        repaint();
+    }
+
+    private double getMinZoom() {
+        double pixels = Math.max(board.getWidth(), board.getHeight()) * (double) board.getCellSize();
+        return Math.min(1, MIN_BOARD_PIXELS / pixels);
+    }
+
+    private void updatePreferredSize() {
+        setPreferredSize(new Dimension(renderer.getScaledWidth(), renderer.getScaledHeight()));
+        revalidate();
+    }
+
+    public void zoomBy(double factor, Point anchor) {
+        double oldZoom = renderer.getZoom();
+        double zoom = Math.max(getMinZoom(), Math.min(MAX_ZOOM, oldZoom * factor));
+        if (zoom == oldZoom) {
+            return;
+        }
+
+        Rectangle view = getVisibleRect();
+        if (anchor == null) {
+            anchor = new Point(view.x + view.width / 2, view.y + view.height / 2);
+        }
+        double scale = zoom / oldZoom;
+        renderer.setZoom(zoom);
+        updatePreferredSize();
+        setSize(getPreferredSize());
+        view.x = (int) Math.round(anchor.x * scale - (anchor.x - view.x));
+        view.y = (int) Math.round(anchor.y * scale - (anchor.y - view.y));
+        scrollRectToVisible(view);
+        repaint();
+    }
+
+    @Override
+    public void cellChanged(Board source, int index) {
+        if (source != board) {
+            return;
+        }
+
+        renderer.markDirty(index);
+        repaint(renderer.getCellBounds(index));
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        PaintEvent event = new PaintEvent();
+        event.begin();
+        long start = System.nanoTime();
+        super.paintComponent(g);
+
+        Rectangle clip = g.getClipBounds();
+        renderer.paint((Graphics2D) g, clip != null ? clip : getVisibleRect(), getGraphicsConfiguration());
+        BoardMetrics.INSTANCE.painted(System.nanoTime() - start, renderer.getCellsDrawn());
+        if (event.shouldCommit()) {
+            event.cells = renderer.getCellsDrawn();
+            event.commit();
+        }
+        if (overlay) {
+            paintOverlay((Graphics2D) g);
+        }
+    }
+
+    public boolean isOverlayVisible() {
+        return overlay;
+    }
+
+    // The overlay sits at a fixed place in the viewport, so blit scrolling would smear it; scroll by
+    // repainting while it is shown.
+    public void setOverlayVisible(boolean visible) {
+        overlay = visible;
+        JViewport viewport = (JViewport) SwingUtilities.getAncestorOfClass(JViewport.class, this);
+        if (viewport != null) {
+            viewport.setScrollMode(visible ? JViewport.SIMPLE_SCROLL_MODE : JViewport.BLIT_SCROLL_MODE);
+        }
+        repaint();
+    }
+
+    private void paintOverlay(Graphics2D g2d) {
+        BoardMetrics metrics = BoardMetrics.INSTANCE;
+        String[] lines = {
+                String.format("frame p50 %.2f ms  p99 %.2f ms", metrics.getFramePercentile(50) / 1e6,
+                        metrics.getFramePercentile(99) / 1e6),
+                String.format("cells drawn %d  frames %d", metrics.getLastCellsDrawn(), metrics.getFramesPainted()),
+                String.format("board %dx%d  zoom %.2f", board.getWidth(), board.getHeight(), renderer.getZoom())};
+
+        Rectangle view = getVisibleRect();
+        FontMetrics fm = g2d.getFontMetrics();
+        int lineHeight = fm.getHeight();
+        int width = 0;
+        for (String line : lines) {
+            width = Math.max(width, fm.stringWidth(line));
+        }
+        g2d.setColor(OVERLAY_COLOR);
+        g2d.fillRect(view.x + 4, view.y + 4, width + 12, lines.length * lineHeight + 8);
+        g2d.setColor(Color.WHITE);
+        for (int i = 0; i < lines.length; i++) {
+            g2d.drawString(lines[i], view.x + 10, view.y + 8 + fm.getAscent() + i * lineHeight);
+        }
+    }
+
+    @Override
+    public Dimension getPreferredScrollableViewportSize() {
+        Dimension size = getPreferredSize();
+        return new Dimension(Math.min(size.width, MAX_VIEWPORT_WIDTH), Math.min(size.height, MAX_VIEWPORT_HEIGHT));
+    }
+
+    @Override
+    public int getScrollableUnitIncrement(Rectangle visibleRect, int orientation, int direction) {
+        return Math.max(1, (int) Math.round(renderer.getCellPixels()));
+    }
+
+    @Override
+    public int getScrollableBlockIncrement(Rectangle visibleRect, int orientation, int direction) {
+        return orientation == SwingConstants.HORIZONTAL ? visibleRect.width : visibleRect.height;
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportWidth() {
+        return false;
+    }
+
+    @Override
+    public boolean getScrollableTracksViewportHeight() {
+        return false;
+    }
+
+    public TaskStatusBar getStatusBar() {
+        return statusBar;
+    }
+
+    // Generation and disk I/O run as cancellable background tasks, at most one of each kind at a time.
+    public void onDesignClicked() {
+        if (isRunning(generateTask)) {
+            return;
+        }
+
+        final int width = board.getWidth();
+        final int height = board.getHeight();
+        final int cellSize = board.getCellSize();
+        final ItemTable items = board.getItemTable();
+        final MazeAlgorithm algorithm = board.getMazeAlgorithm() != null
+                ? board.getMazeAlgorithm() : MazeAlgorithm.DFS;
+        generateTask = new BoardTask<Board>("Generating") {
+            @Override
+            protected Board doInBackground() {
+                return new Board(width, height, cellSize, ThreadLocalRandom.current().nextLong(), items, algorithm,
+                        progress);
+            }
+
+            @Override
+            protected void succeeded(Board result) {
+                setBoard(result);
+                if (designMode) {
+                    startJournal();
+                }
+            }
+        };
+        generateTask.start();
+    }
+
+    // With a journal every edit is already written, so saving only makes it durable.
+    public void onSaveClicked() {
+        if (isRunning(saveTask)) {
+            return;
+        }
+
+        final Board target = board;
+        final BoardJournal targetJournal = journal;
+        saveTask = new BoardTask<Void>("Saving") {
+            @Override
+            protected Void doInBackground() throws IOException {
+                if (targetJournal != null) {
+                    targetJournal.force();
+                } else if (target.isReproducible()) {
+                    BoardFile.writeSeed(target, SNAPSHOT_PATH);
+                } else {
+                    BoardFile.write(target, SNAPSHOT_PATH, false, progress);
+                }
+                return null;
+            }
+        };
+        saveTask.start();
+    }
+
+    public void onReloadClicked() {
+        if (isRunning(loadTask)) {
+            return;
+        }
+        // The load reads the files this journal and its compaction write.
+        if (journal != null) {
+            closeJournal();
+        }
+
+        loadTask = new BoardTask<BoardJournal>("Loading") {
+            @Override
+            protected BoardJournal doInBackground() throws IOException {
+                return BoardJournal.open(SNAPSHOT_PATH, JOURNAL_PATH, progress);
+            }
+
+            @Override
+            protected void succeeded(BoardJournal result) {
+                setBoard(result.getBoard());
+                journal = result;
+            }
+        };
+        loadTask.start();
+    }
+
+    public boolean isDesignMode() {
+        return designMode;
+    }
+
+    // Entering design mode snapshots the board first, unless it already came from the snapshot on disk.
+    public void setDesignMode(boolean enabled) {
+        designMode = enabled;
+        setCursor(enabled ? Cursor.getPredefinedCursor(Cursor.CROSSHAIR_CURSOR) : Cursor.getDefaultCursor());
+        if (enabled && journal == null) {
+            startJournal();
+        }
+    }
+
+    private void startJournal() {
+        if (isRunning(journalTask)) {
+            return;
+        }
+
+        final Board target = board;
+        journalTask = new BoardTask<BoardJournal>("Saving snapshot") {
+            @Override
+            protected BoardJournal doInBackground() throws IOException {
+                return BoardJournal.create(target, SNAPSHOT_PATH, JOURNAL_PATH, progress);
+            }
+
+            @Override
+            protected void succeeded(BoardJournal result) {
+                if (board == result.getBoard()) {
+                    journal = result;
+                } else {
+                    closeQuietly(result);
+                }
+            }
+        };
+        journalTask.start();
+    }
+
+    // Closing cancels a running compaction, or waits for the one being installed.
+    private void closeJournal() {
+        closeQuietly(journal);
+        journal = null;
+        if (compactTask != null) {
+            compactTask.cancel(false);
+            compactTask = null;
+        }
+    }
+
+    private static void closeQuietly(BoardJournal target) {
+        try {
+            target.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // A click near a cell edge toggles that wall; elsewhere it cycles the cell's item, or clears it with shift.
+    private void designClick(Point point, boolean clear) {
+        if (journal == null || isRunning(loadTask)) {
+            return;
+        }
+        BoardGrid grid = board.getGrid();
+        double cellPixels = renderer.getCellPixels();
+        double fx = point.x / cellPixels;
+        double fy = point.y / cellPixels;
+        int x = (int) fx;
+        int y = (int) fy;
+        if (x < 0 || y < 0 || x >= grid.getWidth() || y >= grid.getHeight()) {
+            return;
+        }
+        int index = grid.index(x, y);
+        if (grid.getKind(index) != CellKind.BOARD.ordinal()) {
+            return;
+        }
+
+        Direction edge = null;
+        double nearest = EDGE_FRACTION;
+        for (Direction direction : Direction.VALUES) {
+            double u = direction.getDx() != 0 ? fx - x : fy - y;
+            double distance = direction.getDx() + direction.getDy() > 0 ? 1 - u : u;
+            if (distance < nearest) {
+                nearest = distance;
+                edge = direction;
+            }
+        }
+        try {
+            if (edge != null) {
+                int neighbour = index + edge.getDx() + edge.getDy() * grid.getWidth();
+                // The border stays closed so the doors remain the only way in and out.
+                if (grid.getKind(neighbour) == CellKind.BOARD.ordinal()) {
+                    journal.setWall(index, edge, !grid.hasWall(index, edge));
+                }
+            } else {
+                int item = clear ? 0 : (grid.getItem(index) + 1) % ItemType.VALUES.length;
+                journal.setItem(index, ItemType.VALUES[item]);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            statusBar.setMessage("Journal write failed: " + e.getMessage());
+        }
+        compactIfDue();
+    }
+
+    public void undo() {
+        try {
+            if (journal != null && journal.undo()) {
+                compactIfDue();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            statusBar.setMessage("Journal write failed: " + e.getMessage());
+        }
+    }
+
+    public void redo() {
+        try {
+            if (journal != null && journal.redo()) {
+                compactIfDue();
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            statusBar.setMessage("Journal write failed: " + e.getMessage());
+        }
+    }
+
+    // The snapshot is rebuilt and written in the background while edits keep going to the journal.
+    private void compactIfDue() {
+        if (!journal.needsCompaction() || isRunning(compactTask)) {
+            return;
+        }
+
+        final BoardJournal.Compaction compaction = journal.startCompaction();
+        compactTask = new BoardTask<Void>("Compacting") {
+            @Override
+            protected Void doInBackground() throws IOException {
+                compaction.run(progress);
+                return null;
+            }
+        };
+        compactTask.start();
+    }
+
+    private static boolean isRunning(SwingWorker<?, ?> task) {
+        return task != null && !task.isDone();
+    }
+
+    private abstract class BoardTask<T> extends SwingWorker<T, Void> {
+
+        private final String name;
+
+        protected final TaskProgress progress = new TaskProgress() {
+            @Override
+            protected void onProgress(int percent) {
+                setProgress(percent);
+            }
+        };
+
+        BoardTask(String name) {
+            this.name = name;
+        }
+
+        void start() {
+            statusBar.track(name, this);
+            execute();
+        }
+
+        // Runs on the EDT, so the finished board is swapped in without racing paints.
+        @Override
+        protected final void done() {
+            try {
+                succeeded(get());
+                statusBar.setMessage(name + " done");
+            } catch (CancellationException e) {
+                statusBar.setMessage(name + " cancelled");
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof CancellationException) {
+                    statusBar.setMessage(name + " cancelled");
+                } else {
+                    cause.printStackTrace();
+                    statusBar.setMessage(name + " failed: " + cause.getMessage());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        protected void succeeded(T result) {
+        }
+    }
+}
+
+// One player walking a board from entrance to exit. By default it plays on its own copy, so collected
+// items vanish from the game without becoming edits of the designed board. A shared session leaves the
+// board untouched and remembers collected cells itself, so many sessions can read one board.
+class GameSession {
+
+    // Updates a move takes to animate; input is only read between moves.
+    public static final int MOVE_UPDATES = 10;
+
+    private final Board board;
+    private final int start;
+    private final int goal;
+    private int position;
+    private int previous;
+    private int moveTicks;
+    private int score;
+    private int steps;
+    private int collected;
+    private boolean finished;
+    // Cells already collected from a shared board; null when the session owns its copy.
+    private final IntIntMap collectedCells;
+    private GameReplay replay;
+
+    public GameSession(Board board) {
+        this(board.copy(), false);
+    }
+
+    private GameSession(Board board, boolean shared) {
+        this.board = board;
+        this.start = board.innerIndex(board.getEntrance());
+        this.goal = board.innerIndex(board.getExit());
+        this.position = board.getEntrance();
+        this.previous = position;
+        this.collectedCells = shared ? new IntIntMap(16) : null;
+    }
+
+    // A session over a board it must never modify.
+    public static GameSession shared(Board board) {
+        return new GameSession(board, true);
+    }
+
+    public Board getBoard() {
+        return board;
+    }
+
+    public int getPosition() {
+        return position;
+    }
+
+    public int getScore() {
+        return score;
+    }
+
+    public int getSteps() {
+        return steps;
+    }
+
+    public int getCollected() {
+        return collected;
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    void setReplay(GameReplay replay) {
+        this.replay = replay;
+    }
+
+    // Advances one fixed update; direction is the held direction ordinal or -1.
+    public void update(int direction) {
+        if (moveTicks > 0) {
+            moveTicks--;
+            if (moveTicks == 0) {
+                previous = position;
+            }
+        } else if (direction >= 0 && !finished) {
+            move(Direction.VALUES[direction]);
+        }
+    }
+
+    // How far the token has travelled from the previous cell, 0 to 1, between updates.
+    public double getMoveFraction(double alpha) {
+        if (moveTicks == 0) {
+            return 1;
+        }
+        return Math.min(1, (MOVE_UPDATES - moveTicks + alpha) / MOVE_UPDATES);
+    }
+
+    public int getPrevious() {
+        return previous;
+    }
+
+    public boolean move(Direction direction) {
+        if (finished) {
+            return false;
+        }
+        BoardGrid grid = board.getGrid();
+        int target = position + direction.getDx() + direction.getDy() * grid.getWidth();
+        // Doors are in the closed border: the entrance only leads in and the exit is entered from its inner cell.
+        boolean open;
+        if (position == board.getEntrance()) {
+            open = target == start;
+        } else if (target == board.getExit()) {
+            open = position == goal;
+        } else {
+            // Both sides of the wall must be open, as in BoardSolver, so a half-opened wall is not passable.
+            open = grid.getKind(target) == CellKind.BOARD.ordinal() && !grid.hasWall(position, direction)
+                    && !grid.hasWall(target, direction.opposite());
+        }
+        if (!open) {
+            return false;
+        }
+
+        previous = position;
+        position = target;
+        moveTicks = MOVE_UPDATES;
+        steps++;
+        int item = grid.getItem(target);
+        if (item != ItemType.NONE.ordinal() && (collectedCells == null || collectedCells.get(target, 0) == 0)) {
+            score += ItemType.scoreOf(item);
+            collected++;
+            if (collectedCells == null) {
+                board.setItem(target, ItemType.NONE);
+            } else {
+                collectedCells.put(target, 1);
+            }
+        } else {
+            item = ItemType.NONE.ordinal();
+        }
+        if (replay != null) {
+            replay.record(direction, item, System.nanoTime());
+        }
+        if (target == board.getExit()) {
+            finished = true;
+        }
+        return true;
+    }
+}
+
+// A recorded game: each accepted move with the item it collected and the milliseconds since the move
+// before it. Moves are one varint each, (delta << 5) | (item << 2) | direction, so a move at human pace
+// takes two bytes. A keyframe before every KEYFRAME_MOVES-th move holds the whole game state and where
+// that move starts in the stream, so playback seeks anywhere by decoding at most one interval.
+//
+// A recording names its board by seed, size and a checksum of the cells when the game began, and is
+// saved next to the board's seed or snapshot file. verify() replays it against that board.
+final class GameReplay {
+
+    public static final int MAGIC = 0x47425250;
+    public static final int VERSION = 1;
+    public static final int KEYFRAME_MOVES = 1024;
+
+    static final int HEADER_SIZE = 56;
+    private static final int KEYFRAME_BYTES = 24;
+    private static final int DIRECTION_BITS = 2;
+    private static final int ITEM_BITS = 3;
+
+    private final long seed;
+    private final int width;
+    private final int height;
+    private final int entrance;
+    private final int boardChecksum;
+    private final long startMillis;
+    private final long startNanos;
+    private final int[] offsets = new int[Direction.VALUES.length];
+    private byte[] stream;
+    private int length;
+    private int moves;
+    // Per keyframe: stream offset, position, score and items collected, with the time alongside.
+    private final IntList keyframes = new IntList();
+    private long[] keyframeMillis = new long[16];
+    // State after the last recorded move.
+    private int position;
+    private int score;
+    private int collected;
+    private long millis;
+
+    private GameReplay(long seed, int width, int height, int entrance, int boardChecksum, long startMillis,
+            byte[] stream) {
+        this.seed = seed;
+        this.width = width;
+        this.height = height;
+        this.entrance = entrance;
+        this.boardChecksum = boardChecksum;
+        this.startMillis = startMillis;
+        this.startNanos = System.nanoTime();
+        this.stream = stream;
+        this.position = entrance;
+        for (Direction direction : Direction.VALUES) {
+            offsets[direction.ordinal()] = direction.getDx() + direction.getDy() * width;
+        }
+    }
+
+    // Starts recording a session that has not moved yet.
+    public static GameReplay record(GameSession session) {
+        if (session.getSteps() != 0) {
+            throw new IllegalStateException("Session has already moved");
+        }
+        Board board = session.getBoard();
+        GameReplay replay = new GameReplay(board.getSeed(), board.getWidth(), board.getHeight(), board.getEntrance(),
+                checksum(board.getGrid()), System.currentTimeMillis(), new byte[256]);
+        session.setReplay(replay);
+        return replay;
+    }
+
+    static int checksum(BoardGrid grid) {
+        CRC32 crc = new CRC32();
+        byte[] chunk = new byte[Math.min(grid.size(), 1 << 16)];
+        for (int from = 0; from < grid.size(); from += chunk.length) {
+            int count = Math.min(chunk.length, grid.size() - from);
+            grid.pack(from, chunk, 0, count);
+            crc.update(chunk, 0, count);
+        }
+        return (int) crc.getValue();
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public long getStartMillis() {
+        return startMillis;
+    }
+
+    public int getMoves() {
+        return moves;
+    }
+
+    public int getScore() {
+        return score;
+    }
+
+    public int getCollected() {
+        return collected;
+    }
+
+    // Milliseconds from the start of the recording to its last move.
+    public long getMillis() {
+        return millis;
+    }
+
+    // Stream bytes, keyframes excluded.
+    public int getLength() {
+        return length;
+    }
+
+    // Called by the session after each move it accepts; item is what the move collected, if anything.
+    void record(Direction direction, int item, long nanos) {
+        if (moves % KEYFRAME_MOVES == 0) {
+            keyframe(length, position, score, collected, millis);
+        }
+        long now = Math.max(millis, (nanos - startNanos) / 1_000_000L);
+        long value = (now - millis) << (ITEM_BITS + DIRECTION_BITS) | item << DIRECTION_BITS | direction.ordinal();
+        if (length + 10 > stream.length) {
+            stream = Arrays.copyOf(stream, stream.length * 2);
+        }
+        while ((value & ~0x7FL) != 0) {
+            stream[length++] = (byte) (value | 0x80);
+            value >>>= 7;
+        }
+        stream[length++] = (byte) value;
+
+        moves++;
+        millis = now;
+        position += offsets[direction.ordinal()];
+        score += ItemType.scoreOf(item);
+        if (item != ItemType.NONE.ordinal()) {
+            collected++;
+        }
+    }
+
+    private void keyframe(int offset, int position, int score, int collected, long millis) {
+        int index = keyframes.size() / 4;
+        if (index == keyframeMillis.length) {
+            keyframeMillis = Arrays.copyOf(keyframeMillis, index * 2);
+        }
+        keyframeMillis[index] = millis;
+        keyframes.add(offset);
+        keyframes.add(position);
+        keyframes.add(score);
+        keyframes.add(collected);
+    }
+
+    public Playback playback() {
+        return new Playback();
+    }
+
+    // Whether the recording was made on this board as it was when the game began.
+    public boolean isRecordingOf(Board board) {
+        return board.getWidth() == width && board.getHeight() == height && board.getEntrance() == entrance
+                && checksum(board.getGrid()) == boardChecksum;
+    }
+
+    // Plays the recording against the board: the number of leading moves the board accepts exactly as
+    // recorded, which is getMoves() when the whole game checks out, or -1 for a different board.
+    public int verify(Board board) {
+        if (!isRecordingOf(board)) {
+            return -1;
+        }
+        BoardGrid grid = board.getGrid();
+        GameSession session = GameSession.shared(board);
+        Playback playback = playback();
+        int verified = 0;
+        while (playback.next()) {
+            int before = session.getCollected();
+            if (!session.move(Direction.VALUES[playback.getDirection()])) {
+                break;
+            }
+            int item = session.getCollected() != before ? grid.getItem(session.getPosition()) : ItemType.NONE.ordinal();
+            if (item != playback.getItem() || session.getPosition() != playback.getPosition()) {
+                break;
+            }
+            verified++;
+        }
+        return verified;
+    }
+
+    public void write(Path path) throws IOException {
+        int keyframeCount = keyframes.size() / 4;
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + length + keyframeCount * KEYFRAME_BYTES);
+        buffer.position(HEADER_SIZE);
+        buffer.put(stream, 0, length);
+        for (int k = 0; k < keyframeCount; k++) {
+            for (int i = 0; i < 4; i++) {
+                buffer.putInt(keyframes.get(k * 4 + i));
+            }
+            buffer.putLong(keyframeMillis[k]);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), HEADER_SIZE, buffer.position() - HEADER_SIZE);
+
+        buffer.position(0);
+        buffer.putInt(MAGIC).putShort((short) VERSION).putShort((short) 0)
+                .putLong(seed).putInt(width).putInt(height).putInt(entrance).putInt(boardChecksum)
+                .putLong(startMillis).putInt(moves).putInt(length).putInt(keyframeCount).putInt((int) crc.getValue());
+        buffer.rewind();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    public static GameReplay read(Path path) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+        try {
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("Not a replay file");
+            }
+            int version = buffer.getShort();
+            if (version != VERSION) {
+                throw new IOException("Unsupported replay file version " + version);
+            }
+            buffer.getShort();
+            long seed = buffer.getLong();
+            int width = buffer.getInt();
+            int height = buffer.getInt();
+            int entrance = buffer.getInt();
+            int boardChecksum = buffer.getInt();
+            long startMillis = buffer.getLong();
+            int moves = buffer.getInt();
+            int length = buffer.getInt();
+            int keyframeCount = buffer.getInt();
+            int checksum = buffer.getInt();
+            if (moves < 0 || length < 0 || keyframeCount != (moves + KEYFRAME_MOVES - 1) / KEYFRAME_MOVES
+                    || buffer.remaining() != length + (long) keyframeCount * KEYFRAME_BYTES) {
+                throw new IOException("Corrupt replay file");
+            }
+            CRC32 crc = new CRC32();
+            crc.update(buffer.array(), HEADER_SIZE, buffer.remaining());
+            if ((int) crc.getValue() != checksum) {
+                throw new IOException("Replay checksum mismatch");
+            }
+
+            byte[] stream = new byte[Math.max(length, 16)];
+            buffer.get(stream, 0, length);
+            GameReplay replay = new GameReplay(seed, width, height, entrance, boardChecksum, startMillis, stream);
+            replay.length = length;
+            for (int k = 0; k < keyframeCount; k++) {
+                replay.keyframe(buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer.getInt(), buffer.getLong());
+            }
+            // The state after the last move, which recording would carry on from.
+            Playback end = replay.new Playback(moves);
+            end.seek(moves);
+            replay.moves = moves;
+            replay.position = end.position;
+            replay.score = end.score;
+            replay.collected = end.collected;
+            replay.millis = end.millis;
+            return replay;
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IOException("Corrupt replay file", e);
+        }
+    }
+
+    // A cursor over the recorded moves. It only decodes the stream, so it needs no board and runs at
+    // memory speed; getPosition() is the cell index on the recorded board.
+    final class Playback {
+
+        private final int end;
+        private int move;
+        private int offset;
+        private int position = entrance;
+        private int score;
+        private int collected;
+        private long millis;
+        private int direction = -1;
+        private int item;
+
+        private Playback() {
+            this(moves);
+        }
+
+        private Playback(int end) {
+            this.end = end;
+        }
+
+        // Moves played so far.
+        public int getMove() {
+            return move;
+        }
+
+        public int getPosition() {
+            return position;
+        }
+
+        public int getScore() {
+            return score;
+        }
+
+        public int getCollected() {
+            return collected;
+        }
+
+        public long getMillis() {
+            return millis;
+        }
+
+        // Direction ordinal of the last move played; -1 before the first and after seeking onto a keyframe.
+        public int getDirection() {
+            return direction;
+        }
+
+        // ItemType ordinal the last move collected.
+        public int getItem() {
+            return item;
+        }
+
+        public boolean next() {
+            if (move >= end) {
+                return false;
+            }
+            long value = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = stream[offset++];
+                value |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+
+            direction = (int) value & 3;
+            item = (int) (value >>> DIRECTION_BITS) & ((1 << ITEM_BITS) - 1);
+            millis += value >>> (ITEM_BITS + DIRECTION_BITS);
+            position += offsets[direction];
+            score += ItemType.scoreOf(item);
+            if (item != ItemType.NONE.ordinal()) {
+                collected++;
+            }
+            move++;
+            return true;
+        }
+
+        // Moves to the state after the given number of moves, from the nearest keyframe at or before it.
+        public void seek(int target) {
+            if (target < 0 || target > end) {
+                throw new IllegalArgumentException("No move " + target + " in a recording of " + end);
+            }
+            int k = Math.min(target / KEYFRAME_MOVES, keyframes.size() / 4 - 1);
+            if (k >= 0 && (target < move || k * KEYFRAME_MOVES > move)) {
+                move = k * KEYFRAME_MOVES;
+                offset = keyframes.get(k * 4);
+                position = keyframes.get(k * 4 + 1);
+                score = keyframes.get(k * 4 + 2);
+                collected = keyframes.get(k * 4 + 3);
+                millis = keyframeMillis[k];
+                direction = -1;
+                item = ItemType.NONE.ordinal();
+            }
+            while (move < target) {
+                next();
+            }
+        }
+    }
+}
+
+// Active rendering for a GameSession: a dedicated thread runs fixed-rate updates and paces frames
+// to the display's refresh rate, drawing through a BufferStrategy rather than Swing repaints.
+class GameCanvas extends Canvas implements BoardListener, Runnable {
+
+    public static final int UPDATES_PER_SECOND = 120;
+    private static final long UPDATE_NANOS = 1_000_000_000L / UPDATES_PER_SECOND;
+    // Sleeping is coarse, so the last stretch before a frame deadline is spent yielding instead.
+    private static final long SPIN_NANOS = 1_000_000L;
+    private static final int FRAME_SAMPLES = 256;
+    private static final int[] KEY_CODES = {KeyEvent.VK_UP, KeyEvent.VK_RIGHT, KeyEvent.VK_DOWN, KeyEvent.VK_LEFT};
+    private static final int[] ALT_KEY_CODES = {KeyEvent.VK_W, KeyEvent.VK_D, KeyEvent.VK_S, KeyEvent.VK_A};
+    private static final Color PLAYER_COLOR = new Color(33, 150, 243);
+    private static final Color HUD_COLOR = new Color(0, 0, 0, 160);
+
+    private final GameSession session;
+    private final BoardRenderer renderer;
+    private final long[] frameNanos = new long[FRAME_SAMPLES];
+    private final StringBuilder hud = new StringBuilder();
+    private final Rectangle view = new Rectangle();
+    private char[] hudChars = new char[64];
+    private int frameCount;
+    // Bit per direction ordinal: held keys, and presses not yet seen by an update so taps are never lost.
+    // Presses are set on the EDT and cleared by the game loop, so both sides update them atomically.
+    private volatile int heldKeys;
+    private final AtomicInteger pressedKeys = new AtomicInteger();
+    private volatile boolean running;
+    private Thread loop;
+
+    public GameCanvas(GameSession session) {
+        this.session = session;
+        this.renderer = new BoardRenderer(Color.LIGHT_GRAY);
+        this.renderer.setBoard(session.getBoard());
+        setBackground(Color.LIGHT_GRAY);
+        setIgnoreRepaint(true);
+        setFocusable(true);
+        setPreferredSize(new Dimension(800, 600));
+
+        addKeyListener(new KeyAdapter() {
+            @Override
+            public void keyPressed(KeyEvent e) {
+                int bit = keyBit(e.getKeyCode());
+                heldKeys |= bit;
+                updateKeys(pressedKeys, bit, 0);
+            }
+
+            @Override
+            public void keyReleased(KeyEvent e) {
+                heldKeys &= ~keyBit(e.getKeyCode());
+            }
+        });
+    }
+
+    private static void updateKeys(AtomicInteger keys, int set, int clear) {
+        int current;
+        do {
+            current = keys.get();
+        } while (!keys.compareAndSet(current, (current | set) & ~clear));
+    }
+
+    private static int keyBit(int keyCode) {
+        for (int d = 0; d < KEY_CODES.length; d++) {
+            if (KEY_CODES[d] == keyCode || ALT_KEY_CODES[d] == keyCode) {
+                return 1 << d;
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public void cellChanged(Board source, int index) {
+        renderer.markDirty(index);
+    }
+
+    public void start() {
+        if (running) {
+            return;
+        }
+        createBufferStrategy(2);
+        session.getBoard().addBoardListener(this);
+        running = true;
+        loop = new Thread(this, "game-loop");
+        loop.setDaemon(true);
+        loop.start();
+        requestFocusInWindow();
+    }
+
+    public void stop() {
+        running = false;
+        session.getBoard().removeBoardListener(this);
+        if (loop != null) {
+            try {
+                loop.join(1000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        long frameInterval = 1_000_000_000L / refreshRate();
+        long previous = System.nanoTime();
+        long lag = 0;
+        long nextFrame = previous;
+        while (running) {
+            long now = System.nanoTime();
+            lag += Math.min(now - previous, 250_000_000L);
+            previous = now;
+            while (lag >= UPDATE_NANOS) {
+                session.update(nextDirection());
+                lag -= UPDATE_NANOS;
+            }
+
+            render((double) lag / UPDATE_NANOS);
+            frameNanos[frameCount++ % FRAME_SAMPLES] = System.nanoTime() - now;
+
+            nextFrame += frameInterval;
+            long wait = nextFrame - System.nanoTime();
+            if (wait < -frameInterval) {
+                // Fell more than a frame behind; resynchronise instead of rushing to catch up.
+                nextFrame = System.nanoTime();
+            } else {
+                pace(nextFrame);
+            }
+        }
+    }
+
+    private static void pace(long deadline) {
+        long wait = deadline - System.nanoTime();
+        if (wait > SPIN_NANOS) {
+            try {
+                Thread.sleep((wait - SPIN_NANOS) / 1_000_000L, (int) ((wait - SPIN_NANOS) % 1_000_000L));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+        while (deadline - System.nanoTime() > 0) {
+            Thread.yield();
+        }
+    }
+
+    private int refreshRate() {
+        GraphicsConfiguration gc = getGraphicsConfiguration();
+        int rate = gc != null ? gc.getDevice().getDisplayMode().getRefreshRate() : DisplayMode.REFRESH_RATE_UNKNOWN;
+        return rate > 0 ? Math.max(rate, 60) : 144;
+    }
+
+    // A fresh press wins over keys already held, so quick taps turn corners.
+    private int nextDirection() {
+        int pressed = pressedKeys.get();
+        int keys = pressed != 0 ? pressed : heldKeys;
+        if (pressed != 0 && session.getMoveFraction(0) >= 1) {
+            // Only the presses read here are consumed; one landing in between waits for the next update.
+            updateKeys(pressedKeys, 0, pressed);
+        }
+        return keys == 0 ? -1 : Integer.numberOfTrailingZeros(keys);
+    }
+
+    private void render(double alpha) {
+        BufferStrategy strategy = getBufferStrategy();
+        if (strategy == null) {
+            return;
+        }
+        do {
+            do {
+                Graphics2D g2d = (Graphics2D) strategy.getDrawGraphics();
+                try {
+                    draw(g2d, alpha);
+                } finally {
+                    g2d.dispose();
+                }
+            } while (strategy.contentsRestored());
+            strategy.show();
+        } while (strategy.contentsLost());
+        Toolkit.getDefaultToolkit().sync();
+    }
+
+    private void draw(Graphics2D g2d, double alpha) {
+        Board board = session.getBoard();
+        BoardGrid grid = board.getGrid();
+        double cell = renderer.getCellPixels();
+        double t = session.getMoveFraction(alpha);
+        int from = session.getPrevious();
+        int to = session.getPosition();
+        double px = (grid.xOf(from) + (grid.xOf(to) - grid.xOf(from)) * t + 0.5) * cell;
+        double py = (grid.yOf(from) + (grid.yOf(to) - grid.yOf(from)) * t + 0.5) * cell;
+
+        // The camera follows the token, clamped so the board edge never scrolls past the window edge.
+        int w = getWidth();
+        int h = getHeight();
+        int camX = clamp((int) Math.round(px) - w / 2, renderer.getScaledWidth() - w);
+        int camY = clamp((int) Math.round(py) - h / 2, renderer.getScaledHeight() - h);
+
+        g2d.setColor(getBackground());
+        g2d.fillRect(0, 0, w, h);
+        g2d.translate(-camX, -camY);
+        view.setBounds(camX, camY, w, h);
+        renderer.paint(g2d, view, getGraphicsConfiguration());
+
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        int size = (int) Math.max(4, cell * 0.6);
+        g2d.setColor(PLAYER_COLOR);
+        g2d.fillOval((int) Math.round(px) - size / 2, (int) Math.round(py) - size / 2, size, size);
+        g2d.translate(camX, camY);
+        drawHud(g2d);
+    }
+
+    private static int clamp(int value, int max) {
+        return Math.max(0, Math.min(value, Math.max(0, max)));
+    }
+
+    // Built into reused buffers so steady-state frames allocate nothing.
+    private void drawHud(Graphics2D g2d) {
+        long worst = 0;
+        long total = 0;
+        int samples = Math.min(frameCount, FRAME_SAMPLES);
+        for (int i = 0; i < samples; i++) {
+            worst = Math.max(worst, frameNanos[i]);
+            total += frameNanos[i];
+        }
+
+        hud.setLength(0);
+        hud.append("Score ").append(session.getScore())
+                .append("  Steps ").append(session.getSteps())
+                .append("  Items ").append(session.getCollected())
+                .append("  Frame ").append(samples == 0 ? 0 : total / samples / 1000).append(" us")
+                .append(" (max ").append(worst / 1000).append(" us)");
+        if (session.isFinished()) {
+            hud.append("  Finished!");
+        }
+        if (hudChars.length < hud.length()) {
+            hudChars = new char[hud.length() * 2];
+        }
+        hud.getChars(0, hud.length(), hudChars, 0);
+
+        g2d.setColor(HUD_COLOR);
+        g2d.fillRect(0, 0, getWidth(), 22);
+        g2d.setColor(Color.WHITE);
+        g2d.drawChars(hudChars, 0, hud.length(), 8, 16);
+    }
+}
+
+class GameFrame extends JFrame {
+
+    private static final Path REPLAY_PATH = Paths.get("last-game.gbrp");
+
+    public GameFrame(Board board) {
+        GameSession session = new GameSession(board);
+        final GameReplay replay = GameReplay.record(session);
+        final GameCanvas canvas = new GameCanvas(session);
+        this.add(canvas, BorderLayout.CENTER);
+        this.setTitle("Board Game - Play");
+        this.setDefaultCloseOperation(DISPOSE_ON_CLOSE);
+        this.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                canvas.stop();
+                try {
+                    replay.write(REPLAY_PATH);
+                } catch (IOException ex) {
+                    System.err.println("Replay not saved: " + ex);
+                }
+            }
+        });
+        canvas.addKeyListener(new KeyAdapter() {
+            @Override
+            public void keyPressed(KeyEvent e) {
+                if (e.getKeyCode() == KeyEvent.VK_ESCAPE) {
+                    dispose();
+                }
+            }
+        });
+        this.pack();
+        this.setLocationByPlatform(true);
+        this.setVisible(true);
+        canvas.start();
+    }
+}
+
+// Explores a ChunkedWorld: drag to pan, arrow keys or WASD to walk. Every pan or step prefetches the
+// chunks in view plus a ring of one around them; chunks still being generated are drawn as placeholders,
+// and a step into one is refused and counted as a stall rather than blocking the event thread.
+class WorldPanel extends JPanel implements ChunkedWorld.ChunkListener {
+
+    private static final int[] KEY_CODES = {KeyEvent.VK_UP, KeyEvent.VK_RIGHT, KeyEvent.VK_DOWN, KeyEvent.VK_LEFT};
+    private static final int[] ALT_KEY_CODES = {KeyEvent.VK_W, KeyEvent.VK_D, KeyEvent.VK_S, KeyEvent.VK_A};
+    private static final Color PLAYER_COLOR = new Color(33, 150, 243);
+    private static final Color PENDING_COLOR = new Color(200, 200, 200);
+    private static final Color HUD_COLOR = new Color(0, 0, 0, 160);
+
+    private final ChunkedWorld world;
+    private final BoardPainter painter;
+    private final StringBuilder hud = new StringBuilder();
+    // World pixel at the panel's top-left corner; long so panning never overflows.
+    private long cameraX;
+    private long cameraY;
+    private int playerX;
+    private int playerY;
+    private int stalls;
+    private Point dragFrom;
+
+    public WorldPanel(ChunkedWorld world) {
+        this.world = world;
+        this.painter = new BoardPainter(world.chunk(0, 0), world.getCellSize());
+        world.addChunkListener(this);
+        setBackground(Color.LIGHT_GRAY);
+        setFocusable(true);
+        setPreferredSize(new Dimension(800, 600));
+
+        MouseAdapter drag = new MouseAdapter() {
+            @Override
+            public void mousePressed(MouseEvent e) {
+                dragFrom = e.getPoint();
+                requestFocusInWindow();
+            }
+
+            @Override
+            public void mouseDragged(MouseEvent e) {
+                if (dragFrom != null) {
+                    panBy(dragFrom.x - e.getX(), dragFrom.y - e.getY());
+                    dragFrom = e.getPoint();
+                }
+            }
+
+            @Override
+            public void mouseReleased(MouseEvent e) {
+                dragFrom = null;
+            }
+        };
+        addMouseListener(drag);
+        addMouseMotionListener(drag);
+        addComponentListener(new ComponentAdapter() {
+            @Override
+            public void componentResized(ComponentEvent e) {
+                centerOnPlayer();
+            }
+        });
+        addKeyListener(new KeyAdapter() {
+            @Override
+            public void keyPressed(KeyEvent e) {
+                for (int d = 0; d < KEY_CODES.length; d++) {
+                    if (KEY_CODES[d] == e.getKeyCode() || ALT_KEY_CODES[d] == e.getKeyCode()) {
+                        move(Direction.VALUES[d]);
+                    }
+                }
+            }
+        });
+    }
+
+    public int getStalls() {
+        return stalls;
+    }
+
+    @Override
+    public void chunkReady(ChunkedWorld source, int chunkX, int chunkY) {
+        repaint();
+    }
+
+    public void panBy(long dx, long dy) {
+        cameraX += dx;
+        cameraY += dy;
+        prefetch();
+        repaint();
+    }
+
+    // Steps only between ready chunks: the player's own may have been evicted, the next may not exist yet.
+    public boolean move(Direction direction) {
+        int x = playerX + direction.getDx();
+        int y = playerY + direction.getDy();
+        BoardGrid here = world.chunkIfReady(world.chunkOf(playerX), world.chunkOf(playerY));
+        BoardGrid there = world.chunkIfReady(world.chunkOf(x), world.chunkOf(y));
+        if (here == null || there == null) {
+            stalls++;
+            repaint();
+            return false;
+        }
+        if (here.hasWall(world.localIndex(playerX, playerY), direction)) {
+            return false;
+        }
+        playerX = x;
+        playerY = y;
+        centerOnPlayer();
+        return true;
+    }
+
+    private void centerOnPlayer() {
+        int cell = world.getCellSize();
+        cameraX = (long) playerX * cell + cell / 2 - getWidth() / 2;
+        cameraY = (long) playerY * cell + cell / 2 - getHeight() / 2;
+        prefetch();
+        repaint();
+    }
+
+    private void prefetch() {
+        long chunkPixels = (long) world.getChunkSize() * world.getCellSize();
+        world.prefetch((int) Math.floorDiv(cameraX, chunkPixels) - 1, (int) Math.floorDiv(cameraY, chunkPixels) - 1,
+                (int) Math.floorDiv(cameraX + getWidth(), chunkPixels) + 1,
+                (int) Math.floorDiv(cameraY + getHeight(), chunkPixels) + 1);
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        super.paintComponent(g);
+        Graphics2D g2d = (Graphics2D) g;
+        int cell = world.getCellSize();
+        int size = world.getChunkSize();
+        long chunkPixels = (long) size * cell;
+        Rectangle clip = g2d.getClipBounds();
+        if (clip == null) {
+            clip = new Rectangle(0, 0, getWidth(), getHeight());
+        }
+
+        for (long cy = Math.floorDiv(cameraY + clip.y, chunkPixels);
+                cy * chunkPixels < cameraY + clip.y + clip.height; cy++) {
+            for (long cx = Math.floorDiv(cameraX + clip.x, chunkPixels);
+                    cx * chunkPixels < cameraX + clip.x + clip.width; cx++) {
+                int left = (int) (cx * chunkPixels - cameraX);
+                int top = (int) (cy * chunkPixels - cameraY);
+                BoardGrid grid = world.chunkIfReady((int) cx, (int) cy);
+                if (grid == null) {
+                    g2d.setColor(PENDING_COLOR);
+                    g2d.fillRect(left, top, (int) chunkPixels, (int) chunkPixels);
+                    continue;
+                }
+                // Interior cell (1, 1) lands on the chunk's corner; the wall border is never drawn.
+                painter.setGrid(grid);
+                g2d.translate(left - cell, top - cell);
+                painter.drawCells(g2d, this, Math.max(1, Math.floorDiv(clip.x - left, cell) + 1),
+                        Math.max(1, Math.floorDiv(clip.y - top, cell) + 1),
+                        Math.min(size, Math.floorDiv(clip.x + clip.width - left, cell) + 1),
+                        Math.min(size, Math.floorDiv(clip.y + clip.height - top, cell) + 1));
+                g2d.translate(cell - left, cell - top);
+            }
+        }
+
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        int token = (int) Math.max(4, cell * 0.6);
+        g2d.setColor(PLAYER_COLOR);
+        g2d.fillOval((int) ((long) playerX * cell - cameraX) + (cell - token) / 2,
+                (int) ((long) playerY * cell - cameraY) + (cell - token) / 2, token, token);
+        drawHud(g2d);
+    }
+
+    private void drawHud(Graphics2D g2d) {
+        hud.setLength(0);
+        hud.append("Cell ").append(playerX).append(',').append(playerY)
+                .append("  Chunk ").append(world.chunkOf(playerX)).append(',').append(world.chunkOf(playerY))
+                .append("  Cached ").append(world.getCachedChunks())
+                .append("  Generated ").append(world.getGeneratedChunks())
+                .append("  Stalls ").append(stalls);
+        g2d.setColor(HUD_COLOR);
+        g2d.fillRect(0, 0, getWidth(), 22);
+        g2d.setColor(Color.WHITE);
+        g2d.drawString(hud.toString(), 8, 16);
+    }
+}
+
+class WorldFrame extends JFrame {
+
+    public WorldFrame(final ChunkedWorld world) {
+        final WorldPanel panel = new WorldPanel(world);
+        this.add(panel, BorderLayout.CENTER);
+        this.setTitle("Board Game - Explore");
+        this.setDefaultCloseOperation(DISPOSE_ON_CLOSE);
+        this.addWindowListener(new WindowAdapter() {
+            @Override
+            public void windowClosed(WindowEvent e) {
+                world.removeChunkListener(panel);
+                world.close();
+            }
+        });
+        panel.addKeyListener(new KeyAdapter() {
+            @Override
+            public void keyPressed(KeyEvent e) {
+                if (e.getKeyCode() == KeyEvent.VK_ESCAPE) {
+                    dispose();
+                }
+            }
+        });
+        this.pack();
+        this.setLocationByPlatform(true);
+        this.setVisible(true);
+        panel.requestFocusInWindow();
+    }
+}
+
+class BoardFrame extends JFrame {
+
+    public BoardFrame() {
+        this(new Board());
+    }
+
+    public BoardFrame(Board board) {
+        BoardPanel panel = new BoardPanel(board);
+
+        this.add(new JScrollPane(panel), BorderLayout.CENTER);
+        this.add(panel.getStatusBar(), BorderLayout.SOUTH);
         this.setTitle("Board Game");
-        this.setSize(panel.getSize());
         this.setDefaultCloseOperation(EXIT_ON_CLOSE);
-        this.setResizable(false);
+
+        JMenuBar mb = new JMenuBar();
+        JMenu menu = new JMenu("Menu");
+        mb.add(menu);
+        JMenuItem design = new JMenuItem("Design");
+        design.addActionListener(new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                panel.onDesignClicked();
+            }
+        });
+        menu.add(design);
+        final JCheckBoxMenuItem designMode = new JCheckBoxMenuItem("Design Mode");
+        designMode.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_D, InputEvent.CTRL_DOWN_MASK));
+        designMode.addActionListener(new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                panel.setDesignMode(designMode.isSelected());
+            }
+        });
+        menu.add(designMode);
+        JMenuItem undo = new JMenuItem("Undo");
+        undo.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_Z, InputEvent.CTRL_DOWN_MASK));
+        undo.addActionListener(new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                panel.undo();
+            }
+        });
+        menu.add(undo);
+        JMenuItem redo = new JMenuItem("Redo");
+        redo.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_Y, InputEvent.CTRL_DOWN_MASK));
+        redo.addActionListener(new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                panel.redo();
+            }
+        });
+        menu.add(redo);
+        JMenuItem save = new JMenuItem("Save");
+        save.addActionListener(new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                panel.onSaveClicked();
+            }
+        });
+        menu.add(save);
+        JMenuItem load = new JMenuItem("Load");
+        load.addActionListener(new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                panel.onReloadClicked();
+            }
+        });
+        menu.add(load);
+        JMenuItem play = new JMenuItem("Play");
+        play.addActionListener(new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                new GameFrame(panel.getBoard());
+            }
+        });
+        menu.add(play);
+        JMenuItem explore = new JMenuItem("Explore");
+        explore.addActionListener(new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                Board board = panel.getBoard();
+                new WorldFrame(new ChunkedWorld(board.getSeed(), ChunkedWorld.DEFAULT_CHUNK_SIZE, board.getCellSize(),
+                        ItemTable.DEFAULT, MazeAlgorithm.DFS, ChunkedWorld.DEFAULT_CACHED_CHUNKS));
+            }
+        });
+        menu.add(explore);
+
+        JMenu view = new JMenu("View");
+        mb.add(view);
+        JMenuItem zoomIn = new JMenuItem("Zoom In");
+        zoomIn.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_EQUALS, InputEvent.CTRL_DOWN_MASK));
+        zoomIn.addActionListener(new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                panel.zoomBy(2, null);
+            }
+        });
+        view.add(zoomIn);
+        JMenuItem zoomOut = new JMenuItem("Zoom Out");
+        zoomOut.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_MINUS, InputEvent.CTRL_DOWN_MASK));
+        zoomOut.addActionListener(new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                panel.zoomBy(0.5, null);
+            }
+        });
+        view.add(zoomOut);
+        final JCheckBoxMenuItem overlay = new JCheckBoxMenuItem("Performance Overlay");
+        overlay.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_F3, 0));
+        overlay.addActionListener(new AbstractAction() {
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                panel.setOverlayVisible(overlay.isSelected());
+            }
+        });
+        view.add(overlay);
+
+        this.setJMenuBar(mb);
         this.pack();
         this.setVisible(true);
+    }
+}
+
+// In-tree benchmark harness: each case warms up, then runs until a time budget is spent and reports
+// time and allocation per operation. Results are CSV so a run can be diffed against a checked-in baseline.
+class Benchmarks {
+
+    private static final long WARMUP_NANOS = 1_000_000_000L;
+    private static final long MEASURE_NANOS = 2_000_000_000L;
+    private static final int MIN_OPS = 5;
+    private static final int[] SIZES = {32, 256, 1024};
+    // Whole-board draws are skipped for boards whose image would be larger than this on a side.
+    private static final int MAX_FULL_DRAW = 4096;
+    private static final int VIEW_WIDTH = 1024;
+    private static final int VIEW_HEIGHT = 768;
+
+    // Results flow here so the JIT cannot drop the benchmarked work.
+    static volatile long sink;
+
+    private final com.sun.management.ThreadMXBean threads;
+    private final List<String[]> results = new ArrayList<>();
+
+    Benchmarks() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+            threads = (com.sun.management.ThreadMXBean) bean;
+            threads.setThreadAllocatedMemoryEnabled(true);
+        } else {
+            threads = null;
+        }
+    }
+
+    // Usage: bench [results.csv [baseline.csv]]
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        Benchmarks benchmarks = new Benchmarks();
+        benchmarks.runAll();
+
+        if (args.length > 0) {
+            benchmarks.write(Paths.get(args[0]));
+        }
+        if (args.length > 1) {
+            benchmarks.compare(Paths.get(args[1]), System.out);
+        }
+    }
+
+    void runAll() throws Exception {
+        final Path dir = Files.createTempDirectory("board-bench");
+        try {
+            for (final int size : SIZES) {
+                final long[] seed = {1};
+                run("generate", size, new Callable<Long>() {
+                    @Override
+                    public Long call() {
+                        return (long) new Board(size, size, Board.DEFAULT_CELL_SIZE, seed[0]++).getExit();
+                    }
+                });
+                phases(size);
+
+                final Board board = new Board(size, size, Board.DEFAULT_CELL_SIZE, 42);
+                int pixels = size * board.getCellSize() + 1;
+                // A window-sized view into the middle of the board, as the panel paints it.
+                draw("draw", size, board, new BufferedImage(VIEW_WIDTH, VIEW_HEIGHT, BufferedImage.TYPE_INT_RGB),
+                        (pixels - VIEW_WIDTH) / 2, (pixels - VIEW_HEIGHT) / 2);
+                if (pixels <= MAX_FULL_DRAW) {
+                    draw("draw-full", size, board, new BufferedImage(pixels, pixels, BufferedImage.TYPE_INT_RGB),
+                            0, 0);
+                }
+
+                for (final boolean compress : new boolean[]{false, true}) {
+                    final Path file = dir.resolve("board-" + size + ".gbrd");
+                    run(compress ? "roundtrip-deflate" : "roundtrip", size, new Callable<Long>() {
+                        @Override
+                        public Long call() throws IOException {
+                            BoardFile.write(board, file, compress);
+                            return (long) BoardFile.read(file).getExit();
+                        }
+                    });
+                }
+                // Seed files regenerate through BoardCache, so after warm-up this times the cached path.
+                final Path seedFile = dir.resolve("board-" + size + ".seed");
+                run("roundtrip-seed-cached", size, new Callable<Long>() {
+                    @Override
+                    public Long call() throws IOException {
+                        BoardFile.writeSeed(board, seedFile);
+                        return (long) BoardFile.read(seedFile).getExit();
+                    }
+                });
+            }
+        } finally {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+                for (Path file : files) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(dir);
+        }
+    }
+
+    private void draw(String name, int size, final Board board, final BufferedImage image, final int x,
+            final int y) throws Exception {
+        run(name, size, new Callable<Long>() {
+            @Override
+            public Long call() {
+                Graphics2D g2d = image.createGraphics();
+                try {
+                    g2d.translate(-x, -y);
+                    g2d.clipRect(x, y, image.getWidth(), image.getHeight());
+                    board.draw(g2d, null);
+                } finally {
+                    g2d.dispose();
+                }
+                return (long) image.getRGB(image.getWidth() / 2, image.getHeight() / 2);
+            }
+        });
+    }
+
+    // The constructor's phases share one run, timed from inside the board.
+    private void phases(int size) {
+        long[] totals = new long[3];
+        int ops = 0;
+        long deadline = System.nanoTime() + MEASURE_NANOS;
+        while (ops < MIN_OPS || System.nanoTime() < deadline) {
+            Board board = new Board(size, size, Board.DEFAULT_CELL_SIZE, ops);
+            totals[0] += board.getInitNanos();
+            totals[1] += board.getItemNanos();
+            totals[2] += board.getMazeNanos();
+            ops++;
+        }
+        record("generate.initBoard", size, ops, totals[0] / ops, -1);
+        record("generate.initItems", size, ops, totals[1] / ops, -1);
+        record("generate.genPath", size, ops, totals[2] / ops, -1);
+    }
+
+    void run(String name, int size, Callable<Long> op) throws Exception {
+        long end = System.nanoTime() + WARMUP_NANOS;
+        while (System.nanoTime() < end) {
+            sink += op.call();
+        }
+
+        int ops = 0;
+        long allocated = allocatedBytes();
+        long start = System.nanoTime();
+        end = start + MEASURE_NANOS;
+        long now;
+        do {
+            sink += op.call();
+            ops++;
+            now = System.nanoTime();
+        } while (ops < MIN_OPS || now < end);
+        long bytes = threads != null ? (allocatedBytes() - allocated) / ops : -1;
+        record(name, size, ops, (now - start) / ops, bytes);
+    }
+
+    private long allocatedBytes() {
+        return threads != null ? threads.getThreadAllocatedBytes(Thread.currentThread().getId()) : 0;
+    }
+
+    private void record(String name, int size, int ops, long nanosPerOp, long bytesPerOp) {
+        String[] row = {name, Integer.toString(size), Integer.toString(ops), Long.toString(nanosPerOp),
+                Long.toString(bytesPerOp)};
+        results.add(row);
+        System.out.printf("%-20s %5d %8d ops %12.3f ms/op %14s B/op%n", name, size, ops, nanosPerOp / 1e6,
+                bytesPerOp < 0 ? "-" : Long.toString(bytesPerOp));
+    }
+
+    void write(Path path) throws IOException {
+        try (BufferedWriter out = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            out.write("benchmark,size,ops,nanosPerOp,bytesPerOp\n");
+            for (String[] row : results) {
+                out.write(String.join(",", row));
+                out.write('\n');
+            }
+        }
+    }
 
-        JMenuBar mb = new JMenuBar();
-        JMenu menu = new JMenu("Menu");
-        mb.add(menu);
-        JMenuItem design = new JMenuItem("Design");
-        design.addActionListener(new AbstractAction() {
+    // Prints each result's change against the baseline row with the same benchmark and size.
+    void compare(Path baseline, PrintStream out) throws IOException {
+        Map<String, String[]> base = new LinkedHashMap<>();
+        List<String> lines = Files.readAllLines(baseline, StandardCharsets.UTF_8);
+        for (String line : lines.subList(1, lines.size())) {
+            String[] row = line.split(",");
+            base.put(row[0] + "@" + row[1], row);
+        }
+
+        for (String[] row : results) {
+            String[] old = base.get(row[0] + "@" + row[1]);
+            if (old == null) {
+                out.printf("%-20s %5s  new%n", row[0], row[1]);
+                continue;
+            }
+            out.printf("%-20s %5s  time %+7.1f%%  alloc %s%n", row[0], row[1],
+                    change(Long.parseLong(old[3]), Long.parseLong(row[3])),
+                    old[4].equals("-1") ? "-" : String.format("%+7.1f%%",
+                            change(Long.parseLong(old[4]), Long.parseLong(row[4]))));
+        }
+    }
+
+    private static double change(long before, long after) {
+        return before == 0 ? 0 : (after - before) * 100.0 / before;
+    }
+}
+
+// In-tree self-checks: round trips of the file formats and regressions for bugs fixed along the way. Each case
+// works in a scratch directory; failures are listed and the run exits non-zero, so a script can gate on it.
+class SelfTest {
+
+    private final Path dir;
+    private final List<String> failures = new ArrayList<>();
+    private int checks;
+
+    SelfTest(Path dir) {
+        this.dir = dir;
+    }
+
+    // Usage: selftest
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        Path dir = Files.createTempDirectory("board-selftest");
+        SelfTest test = new SelfTest(dir);
+        try {
+            test.runAll();
+        } finally {
+            delete(dir);
+        }
+
+        System.out.printf("%d checks, %d failed%n", test.checks, test.failures.size());
+        for (String failure : test.failures) {
+            System.out.println("  " + failure);
+        }
+        if (!test.failures.isEmpty()) {
+            System.exit(1);
+        }
+    }
+
+    void runAll() {
+        run("board-file", new Callable<Void>() {
             @Override
-            public void actionPerformed(ActionEvent e) {
-                panel.onDesignClicked();
+            public Void call() throws IOException {
+                boardFile();
+                return null;
             }
         });
-        menu.add(design);
-        JMenuItem save = new JMenuItem("Save");
-        save.addActionListener(new AbstractAction() {
+        run("generators", new Callable<Void>() {
             @Override
-            public void actionPerformed(ActionEvent e) {
-                panel.onSaveClicked();
+            public Void call() throws IOException {
+                generators();
+                return null;
             }
         });
-        menu.add(save);
-        JMenuItem load = new JMenuItem("Load");
-        load.addActionListener(new AbstractAction() {
+        run("png-export", new Callable<Void>() {
             @Override
-            public void actionPerformed(ActionEvent e) {
-                panel.onReloadClicked();
+            public Void call() throws Exception {
+                pngExport();
+                return null;
             }
         });
-        menu.add(load);
+        run("journal", new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                journal();
+                return null;
+            }
+        });
+        run("replay", new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+                replay();
+                return null;
+            }
+        });
+        run("load-generator", new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                loadGenerator();
+                return null;
+            }
+        });
+        run("solver", new Callable<Void>() {
+            @Override
+            public Void call() {
+                solver();
+                return null;
+            }
+        });
+        run("game-moves", new Callable<Void>() {
+            @Override
+            public Void call() {
+                gameMoves();
+                return null;
+            }
+        });
+        run("simulation", new Callable<Void>() {
+            @Override
+            public Void call() {
+                simulation();
+                return null;
+            }
+        });
+        run("trace", new Callable<Void>() {
+            @Override
+            public Void call() {
+                trace();
+                return null;
+            }
+        });
+        run("regenerate", new Callable<Void>() {
+            @Override
+            public Void call() throws IOException {
+                regenerate();
+                return null;
+            }
+        });
+        run("metrics-reset", new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                metricsReset();
+                return null;
+            }
+        });
+        run("chunked-world", new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                chunkedWorld();
+                return null;
+            }
+        });
+    }
 
-        this.setJMenuBar(mb);
+    private void run(String name, Callable<Void> test) {
+        long start = System.nanoTime();
+        int failed = failures.size();
+        try {
+            test.call();
+        } catch (Exception | AssertionError e) {
+            failures.add(name + ": " + e);
+        }
+        System.out.printf("%-24s %-6s %8.1f ms%n", name, failures.size() == failed ? "ok" : "FAILED",
+                (System.nanoTime() - start) / 1e6);
+    }
+
+    private void check(boolean condition, String message) {
+        checks++;
+        if (!condition) {
+            throw new AssertionError(message);
+        }
+    }
+
+    private void checkSame(Board expected, Board actual, String what) {
+        check(expected.getWidth() == actual.getWidth() && expected.getHeight() == actual.getHeight()
+                && expected.getCellSize() == actual.getCellSize(), what + ": dimensions differ");
+        check(expected.getEntrance() == actual.getEntrance() && expected.getExit() == actual.getExit(),
+                what + ": doors differ");
+        BoardGrid a = expected.getGrid();
+        BoardGrid b = actual.getGrid();
+        for (int i = 0; i < a.size(); i++) {
+            if (a.getPacked(i) != b.getPacked(i)) {
+                check(false, what + ": cell " + i + " differs");
+            }
+        }
+    }
+
+    // Board files: raw, deflated, seed-only and mapped round trips, and rejection of damaged files.
+    private void boardFile() throws IOException {
+        Board board = new Board(37, 23, 20, 11L, ItemTable.ofDensities(0.1, 0.1, 0.1, 0.1, 0.1), MazeAlgorithm.DFS,
+                TaskProgress.NONE);
+        BoardGrid grid = board.getGrid();
+        board.setWall(grid.index(5, 5), Direction.EAST, false);
+        board.setItem(grid.index(9, 4), ItemType.HEART_REWARD);
+
+        Path path = dir.resolve("board.gbrd");
+        for (boolean compress : new boolean[] {false, true}) {
+            BoardFile.write(board, path, compress);
+            Board read = BoardFile.read(path);
+            checkSame(board, read, compress ? "deflated" : "raw");
+            check(read.getSeed() == board.getSeed(), "seed not kept");
+            check(Arrays.equals(Files.readAllBytes(path), BoardFile.toBytes(board, compress)),
+                    "toBytes differs from the written file");
+        }
+
+        byte[] bytes = Files.readAllBytes(path);
+        ByteBuffer header = ByteBuffer.wrap(bytes);
+        check(header.getInt(0) == BoardFile.MAGIC && header.getShort(4) == BoardFile.VERSION,
+                "header does not start with magic and version");
+        check(header.getShort(6) == BoardFile.FLAG_DEFLATE, "deflate flag not set");
+        check(header.getLong(36) == bytes.length - BoardFile.HEADER_SIZE, "payload length does not match the file");
+
+        BoardFile.write(board, path, false);
+        checkSame(board, BoardFile.map(path, false), "mapped");
+        bytes = Files.readAllBytes(path);
+        checkRejected(bytes, BoardFile.HEADER_SIZE + 40, 0x01, "flipped payload byte");
+        checkRejected(bytes, 0, 0xFF, "bad magic");
+        checkRejected(bytes, 5, BoardFile.VERSION ^ (BoardFile.VERSION + 1), "newer version");
+        checkRejected(bytes, 7, 0x80, "unknown flag");
+        checkRejected(Arrays.copyOf(bytes, bytes.length - 1), 0, 0, "truncated payload");
+        checkRejected(Arrays.copyOf(bytes, BoardFile.HEADER_SIZE - 1), 0, 0, "truncated header");
+
+        BoardFile.writeSeed(board, path);
+        checkSame(board, BoardFile.read(path), "seed file");
+        bytes = Files.readAllBytes(path);
+        checkRejected(bytes, bytes.length - 1, 0x01, "flipped seed edit");
+    }
+
+    // Every algorithm carves a deterministic perfect maze at odd, even and minimal sizes, and the streamed
+    // Eller file has the same walls, doors and item counts as the in-memory Eller board.
+    private void generators() throws IOException {
+        int[][] sizes = {{3, 3}, {4, 9}, {31, 27}, {64, 40}};
+        for (MazeAlgorithm algorithm : MazeAlgorithm.VALUES) {
+            for (int[] size : sizes) {
+                for (long seed = 0; seed < 4; seed++) {
+                    String what = algorithm + " " + size[0] + "x" + size[1] + " seed " + seed;
+                    Board board = new Board(size[0], size[1], 20, seed, ItemTable.DEFAULT, algorithm,
+                            TaskProgress.NONE);
+                    checkPerfect(board, what);
+                    checkSame(board, new Board(size[0], size[1], 20, seed, ItemTable.DEFAULT, algorithm,
+                            TaskProgress.NONE), what + " rerun");
+                }
+            }
+        }
+
+        Path path = dir.resolve("stream.gbrd");
+        for (long seed = 0; seed < 4; seed++) {
+            EllerGenerator.stream(45, 29, 20, seed, ItemTable.DEFAULT, path, TaskProgress.NONE);
+            Board streamed = BoardFile.read(path);
+            Board board = new Board(45, 29, 20, seed, ItemTable.DEFAULT, MazeAlgorithm.ELLER, TaskProgress.NONE);
+            check(streamed.getEntrance() == board.getEntrance() && streamed.getExit() == board.getExit(),
+                    "streamed doors differ, seed " + seed);
+            int[] items = new int[ItemType.VALUES.length];
+            for (int i = 0; i < board.getGrid().size(); i++) {
+                if (streamed.getGrid().getWalls(i) != board.getGrid().getWalls(i)) {
+                    check(false, "streamed walls differ at " + i + ", seed " + seed);
+                }
+                items[streamed.getGrid().getItem(i)]++;
+                items[board.getGrid().getItem(i)]--;
+            }
+            for (int type = 1; type < items.length; type++) {
+                check(items[type] == 0, "streamed " + ItemType.VALUES[type] + " count differs, seed " + seed);
+            }
+        }
+    }
+
+    // Reopening a journal always rebuilds the live board, through edits, undo, redo, compactions racing
+    // with edits, a torn last record and a crash at each step of installing a compaction.
+    private void journal() throws Exception {
+        Path snapshot = dir.resolve("board.data");
+        Path journal = dir.resolve("board.journal");
+        Path next = dir.resolve("board.journal.next");
+        SplittableRandom random = new SplittableRandom(2);
+        BoardJournal live = BoardJournal.create(new Board(40, 30, 20, 7L), snapshot, journal,
+                TaskProgress.NONE);
+        Board board = live.getBoard();
+        int compactions = 0;
+        for (int step = 1; step <= 20_000; step++) {
+            int op = random.nextInt(10);
+            if (op < 2) {
+                live.undo();
+            } else if (op < 3) {
+                live.redo();
+            } else {
+                edit(live, random);
+            }
+            if (live.needsCompaction()) {
+                // An edit made after the mark must be carried into the new journal.
+                BoardJournal.Compaction compaction = live.startCompaction();
+                edit(live, random);
+                compaction.run(TaskProgress.NONE);
+                compactions++;
+            }
+            if (step % 2500 == 0) {
+                checkReopened(board, snapshot, journal, "step " + step);
+            }
+        }
+        check(compactions > 1, "only " + compactions + " compactions");
+        Board edited = board.copy();
+        int undone = 0;
+        while (live.undo()) {
+            undone++;
+        }
+        checkReopened(board, snapshot, journal, "all undone");
+        int redone = 0;
+        while (live.redo()) {
+            redone++;
+        }
+        check(undone > 0 && redone == undone, undone + " actions undone but " + redone + " redone");
+        checkSame(edited, board, "all redone");
+        checkReopened(board, snapshot, journal, "all redone");
+
+        // Edits carry on while a compaction runs on another thread.
+        final BoardJournal.Compaction compaction = live.startCompaction();
+        final Exception[] failure = new Exception[1];
+        Thread compactor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    compaction.run(TaskProgress.NONE);
+                } catch (Exception e) {
+                    failure[0] = e;
+                }
+            }
+        });
+        compactor.start();
+        while (compactor.isAlive()) {
+            edit(live, random);
+        }
+        compactor.join();
+        check(failure[0] == null, "concurrent compaction failed: " + failure[0]);
+        checkReopened(board, snapshot, journal, "concurrent compaction");
+        check(countTemps() == 0, "compaction left temporary files");
+
+        // A record cut short by a crash is dropped.
+        Board beforeLast = board.copy();
+        int cell = board.getGrid().index(3, 3);
+        live.setItem(cell, board.getGrid().getItem(cell) == 1 ? ItemType.VALUES[2] : ItemType.VALUES[1]);
+        live.close();
+        try (FileChannel channel = FileChannel.open(journal, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 3);
+        }
+        checkReopened(beforeLast, snapshot, journal, "torn record");
+
+        // Each state a crash can leave while a compaction installs. Edits after the mark make the new journal
+        // non-empty, so a snapshot installed without its journal, or the reverse, shows up as lost edits.
+        BoardJournal reopened = BoardJournal.open(snapshot, journal, TaskProgress.NONE);
+        while (!reopened.needsCompaction()) {
+            edit(reopened, random);
+        }
+        BoardJournal.Compaction last = reopened.startCompaction();
+        for (int i = 0; i < 50; i++) {
+            edit(reopened, random);
+        }
+        reopened.force();
+        byte[] oldSnapshot = Files.readAllBytes(snapshot);
+        byte[] oldJournal = Files.readAllBytes(journal);
+        last.run(TaskProgress.NONE);
+        byte[] newSnapshot = Files.readAllBytes(snapshot);
+        byte[] newJournal = Files.readAllBytes(journal);
+        Board expected = reopened.getBoard().copy();
+        reopened.close();
+        check(newJournal.length > BoardJournal.HEADER_SIZE, "edits after the mark were not carried over");
+        Path temp = dir.resolve("board.data.1.tmp");
+
+        write(snapshot, oldSnapshot, journal, oldJournal, temp, newSnapshot);
+        checkReopened(expected, snapshot, journal, "crash before the commit");
+        Files.delete(temp);
+        write(snapshot, oldSnapshot, journal, oldJournal, next, newJournal);
+        Files.write(temp, newSnapshot);
+        checkReopened(expected, snapshot, journal, "crash after the commit");
+        check(!Files.exists(next) && !Files.exists(temp), "recovery left the committed files behind");
+        write(snapshot, newSnapshot, journal, oldJournal, next, newJournal);
+        checkReopened(expected, snapshot, journal, "crash after installing the snapshot");
+        write(snapshot, oldSnapshot, journal, oldJournal, next, newJournal);
+        checkReopened(expected, snapshot, journal, "commit without its snapshot");
+        check(!Files.exists(next), "a commit without its snapshot was kept");
+    }
+
+    // A recorded game reads back intact, verifies against its board and only its board, and seeks to any
+    // move, keyframe boundaries included; varints round-trip time deltas from zero to years.
+    private void replay() throws IOException {
+        Board board = new Board(101, 101, 20, 5L, ItemTable.ofDensities(0.05, 0.05, 0.05, 0.05, 0.05),
+                MazeAlgorithm.DFS, TaskProgress.NONE);
+        Path boardPath = dir.resolve("replay.gbrd");
+        BoardFile.write(board, boardPath, false);
+        GameSession session = new GameSession(board);
+        GameReplay recording = GameReplay.record(session);
+        SplittableRandom random = new SplittableRandom(3);
+        IntList positions = new IntList();
+        IntList scores = new IntList();
+        positions.add(session.getPosition());
+        scores.add(0);
+        int direction = 1;
+        while (recording.getMoves() < 5 * GameReplay.KEYFRAME_MOVES + 17 && !session.isFinished()) {
+            if (random.nextInt(4) == 0 || !session.move(Direction.VALUES[direction])) {
+                direction = random.nextInt(Direction.VALUES.length);
+                continue;
+            }
+            positions.add(session.getPosition());
+            scores.add(session.getScore());
+        }
+        int moves = recording.getMoves();
+        check(moves == positions.size() - 1 && moves > 4 * GameReplay.KEYFRAME_MOVES, "recorded " + moves + " moves");
+        Path path = dir.resolve("game.gbrp");
+        recording.write(path);
+
+        GameReplay read = GameReplay.read(path);
+        check(read.getMoves() == moves && read.getScore() == session.getScore()
+                && read.getCollected() == session.getCollected(), "totals differ after reading");
+        check(read.verify(BoardFile.read(boardPath)) == moves, "replay does not verify against its board");
+        Board edited = BoardFile.read(boardPath);
+        edited.setItem(edited.getGrid().index(3, 3), ItemType.HEART_REWARD);
+        check(read.verify(edited) == -1, "replay verifies against an edited board");
+        check(read.verify(new Board(101, 101, 20, 6L)) == -1, "replay verifies against another board");
+
+        GameReplay.Playback playback = read.playback();
+        for (int move = 1; playback.next(); move++) {
+            if (playback.getPosition() != positions.get(move) || playback.getScore() != scores.get(move)) {
+                check(false, "playback differs at move " + move);
+            }
+        }
+        int[] targets = {0, 1, GameReplay.KEYFRAME_MOVES - 1, GameReplay.KEYFRAME_MOVES,
+                GameReplay.KEYFRAME_MOVES + 1, 3 * GameReplay.KEYFRAME_MOVES, moves, moves / 2, 0};
+        for (int i = 0; i < targets.length + 500; i++) {
+            int target = i < targets.length ? targets[i] : random.nextInt(moves + 1);
+            playback.seek(target);
+            check(playback.getMove() == target && playback.getPosition() == positions.get(target)
+                    && playback.getScore() == scores.get(target), "seek to move " + target + " differs");
+        }
+
+        byte[] bytes = Files.readAllBytes(path);
+        bytes[GameReplay.HEADER_SIZE + 10] ^= 1;
+        Path damaged = dir.resolve("damaged.gbrp");
+        Files.write(damaged, bytes);
+        try {
+            GameReplay.read(damaged);
+            check(false, "damaged replay was accepted");
+        } catch (IOException e) {
+            check(true, "damaged replay");
+        }
+
+        // Moves recorded straight into a replay, back and forth, at whole-millisecond gaps of every varint width.
+        GameReplay deltas = GameReplay.record(new GameSession(board));
+        long[] gaps = {0, 1, 3, 127, 128, 16_383, 16_384, 1L << 21, 1L << 35, 1L << 40};
+        long nanos = System.nanoTime();
+        for (int i = 0; i < gaps.length; i++) {
+            nanos += gaps[i] * 1_000_000L;
+            deltas.record(i % 2 == 0 ? Direction.EAST : Direction.WEST, i % ItemType.VALUES.length, nanos);
+        }
+        deltas.write(path);
+        playback = GameReplay.read(path).playback();
+        long millis = 0;
+        for (int i = 0; i < gaps.length; i++) {
+            check(playback.next(), "varint stream ends after " + i + " moves");
+            if (i > 0) {
+                check(playback.getMillis() - millis == gaps[i], "gap " + gaps[i] + " ms read as "
+                        + (playback.getMillis() - millis));
+            }
+            check(playback.getDirection() == (i % 2 == 0 ? Direction.EAST : Direction.WEST).ordinal()
+                    && playback.getItem() == i % ItemType.VALUES.length, "move " + i + " decoded wrongly");
+            millis = playback.getMillis();
+        }
+        check(!playback.next(), "varint stream has extra moves");
+    }
+
+    // chunk() used to generate inline without registering as pending, so a racing prefetch generated the
+    // same chunk again. Chunks must also be deterministic and agree on the walls along their seams.
+    private void chunkedWorld() throws Exception {
+        final ChunkedWorld world = new ChunkedWorld(3L, 64, 20, ItemTable.DEFAULT, MazeAlgorithm.DFS, 1000);
+        try {
+            final CountDownLatch start = new CountDownLatch(1);
+            final int rows = 3;
+            final int chunks = 100;
+            Thread[] threads = new Thread[6];
+            for (int t = 0; t < threads.length; t++) {
+                final boolean prefetch = t % 2 == 1;
+                threads[t] = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            start.await();
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                        for (int y = 0; y < rows; y++) {
+                            for (int x = 0; x < chunks; x++) {
+                                if (prefetch) {
+                                    world.prefetch(x, y, x + 1, y);
+                                } else {
+                                    world.chunk(x, y);
+                                }
+                            }
+                        }
+                    }
+                }, "selftest-chunks");
+                threads[t].start();
+            }
+            start.countDown();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            long deadline = System.nanoTime() + 10_000_000_000L;
+            int expected = rows * (chunks + 1);
+            while (world.getCachedChunks() < expected && System.nanoTime() < deadline) {
+                Thread.sleep(5);
+            }
+            // Let any duplicate still running finish and be counted.
+            Thread.sleep(200);
+            check(world.getCachedChunks() == expected, world.getCachedChunks() + " chunks cached");
+            check(world.getGeneratedChunks() == expected, world.getGeneratedChunks() + " generations for "
+                    + expected + " chunks");
+        } finally {
+            world.close();
+        }
+
+        ChunkedWorld small = new ChunkedWorld(9L, 16, 20, ItemTable.DEFAULT, MazeAlgorithm.KRUSKAL, 64);
+        ChunkedWorld again = new ChunkedWorld(9L, 16, 20, ItemTable.DEFAULT, MazeAlgorithm.KRUSKAL, 64);
+        try {
+            for (int y = -40; y < 40; y++) {
+                for (int x = -40; x < 40; x++) {
+                    if (small.hasWall(x, y, Direction.EAST) != small.hasWall(x + 1, y, Direction.WEST)
+                            || small.hasWall(x, y, Direction.SOUTH) != small.hasWall(x, y + 1, Direction.NORTH)) {
+                        check(false, "walls disagree at " + x + "," + y);
+                    }
+                    for (Direction direction : Direction.VALUES) {
+                        if (small.hasWall(x, y, direction) != again.hasWall(x, y, direction)) {
+                            check(false, "chunk differs between worlds at " + x + "," + y);
+                        }
+                    }
+                    if (small.getItem(x, y) != again.getItem(x, y)) {
+                        check(false, "item differs between worlds at " + x + "," + y);
+                    }
+                }
+            }
+            check(true, "seams");
+        } finally {
+            small.close();
+            again.close();
+        }
+    }
+
+    // reset() used to keep the last phase timings; after it every attribute must read zero.
+    private void metricsReset() throws Exception {
+        BoardMetrics metrics = BoardMetrics.INSTANCE;
+        Board board = new Board(300, 300, 10, 1L);
+        board.getExitDistance(0);
+        Path path = dir.resolve("metrics.gbrd");
+        BoardFile.write(board, path, false);
+        BoardFile.read(path);
+        metrics.painted(2_000_000L, 100);
+        check(((Number) metrics.getAttribute("LastMazeMillis")).doubleValue() > 0
+                && ((Number) metrics.getAttribute("LastFieldMillis")).doubleValue() > 0, "timings not recorded");
+
+        metrics.reset();
+        for (MBeanAttributeInfo attribute : metrics.getMBeanInfo().getAttributes()) {
+            check(((Number) metrics.getAttribute(attribute.getName())).doubleValue() == 0,
+                    attribute.getName() + " is not cleared by reset()");
+        }
+    }
+
+    // genPath() used to carve with an unseeded random, so a regenerated board no longer matched its seed file.
+    private void regenerate() throws IOException {
+        Path path = dir.resolve("regenerated.seed");
+        for (MazeAlgorithm algorithm : MazeAlgorithm.VALUES) {
+            for (long seed = 0; seed < 5; seed++) {
+                String what = algorithm + " seed " + seed;
+                Board board = new Board(31, 27, 20, seed, ItemTable.DEFAULT, algorithm, TaskProgress.NONE);
+                board.genPath();
+                checkSame(new Board(31, 27, 20, seed, ItemTable.DEFAULT, algorithm, TaskProgress.NONE), board,
+                        what + " regenerated");
+                BoardFile.writeSeed(board, path);
+                checkSame(board, BoardFile.read(path), what + " seed file");
+            }
+        }
+    }
+
+    // With walls opened on one side only, solve() used to route through them; its shortest path must now
+    // match a freshly built distance field, and every step of its routes must be open from both sides.
+    private void solver() {
+        SplittableRandom random = new SplittableRandom(1);
+        for (int i = 0; i < 200; i++) {
+            Board board = new Board(21 + random.nextInt(20), 21 + random.nextInt(20), 20, i, ItemTable.DEFAULT,
+                    MazeAlgorithm.DFS, TaskProgress.NONE);
+            BoardGrid grid = board.getGrid();
+            openOneSided(grid, random, 40);
+            BoardSolver.Solution solution = BoardSolver.solve(board, 1000);
+            int expected = new DistanceField(grid, board.innerIndex(board.getEntrance()), board.getEntrance(),
+                    board.innerIndex(board.getExit()), board.getExit()).distance(board.getEntrance());
+            int[] shortest = solution.getShortestPath();
+            check((shortest == null ? -1 : shortest.length - 1) == expected,
+                    "board " + i + ": shortest path differs from the distance field");
+            checkOpenPath(grid, shortest, "board " + i + " shortest path");
+            checkOpenPath(grid, solution.getBestPath(), "board " + i + " best path");
+        }
+    }
+
+    // GameSession.move() used to pass walls opened on the player's side only.
+    private void gameMoves() {
+        SplittableRandom random = new SplittableRandom(3);
+        int moves = 0;
+        for (int i = 0; i < 50; i++) {
+            Board board = new Board(31, 31, 20, i);
+            BoardGrid grid = board.getGrid();
+            openOneSided(grid, random, 80);
+            GameSession session = new GameSession(board);
+            for (int k = 0; k < 5000 && !session.isFinished(); k++) {
+                int from = session.getPosition();
+                Direction direction = Direction.VALUES[random.nextInt(Direction.VALUES.length)];
+                if (!session.move(direction)) {
+                    continue;
+                }
+                moves++;
+                int to = session.getPosition();
+                if (from != board.getEntrance() && to != board.getExit()
+                        && (grid.hasWall(from, direction) || grid.hasWall(to, direction.opposite()))) {
+                    check(false, "board " + i + ": moved through a closed wall at " + from);
+                }
+            }
+        }
+        check(moves > 10_000, "only " + moves + " moves made");
+    }
+
+    // Every item is claimed at most once however many threads race for it, and agents, which used to pass
+    // walls opened on their own side only, move only through walls open from both sides.
+    private void simulation() {
+        Board board = new Board(61, 61, 20, 9L, ItemTable.ofDensities(0.1, 0.1, 0.1, 0.1, 0.1), MazeAlgorithm.DFS,
+                TaskProgress.NONE);
+        BoardGrid grid = board.getGrid();
+        AgentSimulation simulation = new AgentSimulation(board, 5000, 1L);
+        AgentSimulation.Result result = simulation.run(200, 3);
+        long claimed = 0;
+        long score = 0;
+        for (int i = 0; i < grid.size(); i++) {
+            if (simulation.isClaimed(i)) {
+                check(grid.getItem(i) != ItemType.NONE.ordinal(), "empty cell " + i + " claimed");
+                claimed++;
+                score += ItemType.scoreOf(grid.getItem(i));
+            }
+        }
+        long agentScores = 0;
+        for (int a = 0; a < simulation.getAgents(); a++) {
+            agentScores += simulation.getScore(a);
+        }
+        check(claimed == result.getClaims() && score == result.getScore() && agentScores == score,
+                claimed + " cells claimed for " + result.getClaims() + " claims, scores " + score + ", "
+                        + result.getScore() + " and " + agentScores);
+
+        openOneSided(grid, new SplittableRandom(2), 300);
+        simulation = new AgentSimulation(board, 500, 2L);
+        int[] offsets = BoardSolver.offsets(grid);
+        int[] before = new int[simulation.getAgents()];
+        for (int step = 0; step < 200; step++) {
+            for (int a = 0; a < before.length; a++) {
+                before[a] = simulation.getPosition(a);
+            }
+            simulation.run(1, 1);
+            for (int a = 0; a < before.length; a++) {
+                int to = simulation.getPosition(a);
+                if (to != before[a] && !isOpenStep(grid, offsets, before[a], to)) {
+                    check(false, "agent " + a + " passed a closed wall at step " + step);
+                }
+            }
+        }
+    }
+
+    // trace() used to throw on boards with loops, when the exit was walled off or the walk's marks did not
+    // form one path; it must return an open route from door to door, or -1 once the exit is walled off.
+    private void trace() {
+        SplittableRandom random = new SplittableRandom(1);
+        for (int i = 0; i < 20; i++) {
+            Board board = new Board(21, 21, 20, i);
+            BoardGrid grid = board.getGrid();
+            for (int k = 0; k < 60; k++) {
+                grid.openWall(grid.index(2 + random.nextInt(17), 2 + random.nextInt(17)),
+                        Direction.VALUES[random.nextInt(Direction.VALUES.length)]);
+            }
+            IntList route = new IntList();
+            long moves = BoardSolver.trace(board, route);
+            check(moves >= 0 && moves == route.size() - 1 && route.get(0) == board.getEntrance()
+                    && route.get(route.size() - 1) == board.getExit(), "board " + i + ": route does not match "
+                    + moves + " moves from door to door");
+            checkOpenPath(grid, route.toArray(), "board " + i + " traced route");
+            int goal = board.innerIndex(board.getExit());
+            for (Direction direction : Direction.VALUES) {
+                int neighbour = goal + direction.getDx() + direction.getDy() * grid.getWidth();
+                if (grid.getKind(neighbour) == CellKind.BOARD.ordinal()) {
+                    grid.setWalls(goal, grid.getWalls(goal) | direction.bit());
+                    grid.setWalls(neighbour, grid.getWalls(neighbour) | direction.opposite().bit());
+                }
+            }
+            check(BoardSolver.trace(board, new IntList()) == -1, "board " + i + ": walled-off exit not reported");
+        }
+    }
+
+    // Clears wall bits on random interior cells without touching the neighbour's side.
+    private static void openOneSided(BoardGrid grid, SplittableRandom random, int walls) {
+        for (int k = 0; k < walls; k++) {
+            int cell = grid.index(1 + random.nextInt(grid.getWidth() - 2), 1 + random.nextInt(grid.getHeight() - 2));
+            grid.setWalls(cell, grid.getWalls(cell) & ~(1 << random.nextInt(Direction.VALUES.length)));
+        }
+    }
+
+    // Steps between the doors' inner cells must cross walls open from both sides.
+    private void checkOpenPath(BoardGrid grid, int[] path, String what) {
+        if (path == null) {
+            return;
+        }
+        int[] offsets = BoardSolver.offsets(grid);
+        for (int i = 1; i + 2 < path.length; i++) {
+            if (!isOpenStep(grid, offsets, path[i], path[i + 1])) {
+                check(false, what + " is blocked at step " + i);
+            }
+        }
+    }
+
+    // Whether the cells are neighbours with the wall between them open from both sides.
+    private static boolean isOpenStep(BoardGrid grid, int[] offsets, int from, int to) {
+        for (int d = 0; d < offsets.length; d++) {
+            if (from + offsets[d] == to) {
+                return (grid.getWalls(from) & (1 << d)) == 0 && (grid.getWalls(to) & (1 << ((d + 2) & 3))) == 0;
+            }
+        }
+        return false;
+    }
+
+    // Sessions that cannot connect used to leave the start latch waiting forever; now run() must fail
+    // promptly. It also rejects empty runs and completes against a live server.
+    private void loadGenerator() throws Exception {
+        int port;
+        try (ServerSocket unused = new ServerSocket(0)) {
+            port = unused.getLocalPort();
+        }
+        final int closedPort = port;
+        final Throwable[] outcome = new Throwable[1];
+        Thread client = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    LoadGenerator.run("127.0.0.1", closedPort, 8, 10, new PrintStream(new ByteArrayOutputStream()));
+                } catch (Throwable e) {
+                    outcome[0] = e;
+                }
+            }
+        }, "selftest-loadgen");
+        client.setDaemon(true);
+        client.start();
+        client.join(10_000);
+        check(!client.isAlive(), "load generator hangs when no session can connect");
+        check(outcome[0] instanceof ExecutionException, "failed sessions reported as " + outcome[0]);
+
+        for (int[] counts : new int[][] {{0, 10}, {8, 0}}) {
+            try {
+                LoadGenerator.run("127.0.0.1", closedPort, counts[0], counts[1], System.out);
+                check(false, counts[0] + " sessions of " + counts[1] + " moves accepted");
+            } catch (IllegalArgumentException e) {
+                check(true, "empty run rejected");
+            }
+        }
+
+        GameServer server = new GameServer(0, GameServer.generate(2, 21, 21, 1));
+        try {
+            ByteArrayOutputStream report = new ByteArrayOutputStream();
+            LoadGenerator.run("127.0.0.1", server.getPort(), 8, 20, new PrintStream(report, true, "UTF-8"));
+            check(report.toString("UTF-8").startsWith("8 sessions, 160 moves"), "unexpected report: " + report);
+        } finally {
+            server.close();
+        }
+    }
+
+    private static void edit(BoardJournal journal, SplittableRandom random) throws IOException {
+        BoardGrid grid = journal.getBoard().getGrid();
+        int cell = grid.index(1 + random.nextInt(grid.getWidth() - 2), 1 + random.nextInt(grid.getHeight() - 2));
+        if (random.nextBoolean()) {
+            Direction direction = Direction.VALUES[random.nextInt(Direction.VALUES.length)];
+            int neighbour = cell + direction.getDx() + direction.getDy() * grid.getWidth();
+            if (grid.getKind(neighbour) == CellKind.BOARD.ordinal()) {
+                journal.setWall(cell, direction, !grid.hasWall(cell, direction));
+            }
+        } else {
+            journal.setItem(cell, ItemType.VALUES[random.nextInt(ItemType.VALUES.length)]);
+        }
+    }
+
+    // The reopened board must match the expected one cell for cell and in its exit distances, which the
+    // live board keeps up incrementally while the reopened one computes them afresh.
+    private void checkReopened(Board expected, Path snapshot, Path journal, String what) throws IOException {
+        BoardJournal reopened = BoardJournal.open(snapshot, journal, TaskProgress.NONE);
+        try {
+            Board board = reopened.getBoard();
+            checkSame(expected, board, what);
+            for (int i = 0; i < board.getGrid().size(); i++) {
+                if (expected.getExitDistance(i) != board.getExitDistance(i)) {
+                    check(false, what + ": exit distance of cell " + i + " differs");
+                }
+            }
+        } finally {
+            reopened.close();
+        }
+    }
+
+    private static void write(Path path1, byte[] bytes1, Path path2, byte[] bytes2, Path path3, byte[] bytes3)
+            throws IOException {
+        Files.write(path1, bytes1);
+        Files.write(path2, bytes2);
+        Files.write(path3, bytes3);
+    }
+
+    private int countTemps() throws IOException {
+        int temps = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*.tmp")) {
+            for (Path file : files) {
+                temps++;
+            }
+        }
+        return temps;
+    }
+
+    // Combined Adler-32 checksums match one taken over the whole input, and exported images pass their chunk
+    // and zlib checksums and decode to the same pixels as drawing the board directly, for any thread count.
+    private void pngExport() throws Exception {
+        SplittableRandom random = new SplittableRandom(7);
+        byte[] data = new byte[200_000];
+        random.nextBytes(data);
+        for (int i = 0; i < 200; i++) {
+            int from = random.nextInt(data.length);
+            int length = random.nextInt(data.length - from + 1);
+            int split = i % 4 == 0 ? from : from + random.nextInt(length + 1);
+            Adler32 whole = new Adler32();
+            whole.update(data, from, length);
+            Adler32 first = new Adler32();
+            first.update(data, from, split - from);
+            Adler32 second = new Adler32();
+            second.update(data, split, from + length - split);
+            check(PngExporter.combineAdler(first.getValue(), second.getValue(), from + length - split)
+                    == whole.getValue(), "combined Adler-32 differs for " + (split - from) + "+"
+                    + (from + length - split) + " bytes");
+        }
+
+        Path path = dir.resolve("board.png");
+        // The last board is large enough to be rendered in more than one band.
+        int[][] boards = {{40, 30, 20}, {5, 900, 6}, {210, 210, 10}};
+        for (int[] size : boards) {
+            Board board = new Board(size[0], size[1], size[2], 5L, ItemTable.ofDensities(0.1, 0.1, 0.1, 0.1, 0.1),
+                    MazeAlgorithm.DFS, TaskProgress.NONE);
+            int width = PngExporter.imageWidth(board);
+            int height = PngExporter.imageHeight(board);
+            BufferedImage expected = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            Graphics2D g2d = expected.createGraphics();
+            try {
+                g2d.setColor(Color.LIGHT_GRAY);
+                g2d.fillRect(0, 0, width, height);
+                g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+                board.draw(g2d, null);
+            } finally {
+                g2d.dispose();
+            }
+
+            for (int threads : new int[] {1, 3}) {
+                String what = size[0] + "x" + size[1] + " on " + threads + " threads";
+                PngExporter.export(board, path, threads, TaskProgress.NONE);
+                check(inflatePng(path) == (long) height * (1 + width * 3), what + ": wrong scanline data length");
+                BufferedImage image = ImageIO.read(path.toFile());
+                check(image != null && image.getWidth() == width && image.getHeight() == height,
+                        what + ": image not decoded at " + width + "x" + height);
+                int mismatched = 0;
+                for (int y = 0; y < height; y++) {
+                    for (int x = 0; x < width; x++) {
+                        mismatched += ((image.getRGB(x, y) ^ expected.getRGB(x, y)) & 0xFFFFFF) != 0 ? 1 : 0;
+                    }
+                }
+                check(mismatched == 0, what + ": " + mismatched + " pixels differ from a direct draw");
+            }
+        }
+    }
+
+    // Checks every chunk's CRC and inflates the image data to its end, so the zlib stream's Adler-32 is
+    // verified too; returns the inflated length.
+    private long inflatePng(Path path) throws IOException, DataFormatException {
+        ByteBuffer png = ByteBuffer.wrap(Files.readAllBytes(path));
+        png.position(8);
+        Inflater inflater = new Inflater();
+        try {
+            byte[] buffer = new byte[1 << 16];
+            long inflated = 0;
+            while (png.hasRemaining()) {
+                int length = png.getInt();
+                CRC32 crc = new CRC32();
+                crc.update(png.array(), png.position(), 4 + length);
+                String type = new String(png.array(), png.position(), 4, StandardCharsets.US_ASCII);
+                int data = png.position() + 4;
+                png.position(data + length);
+                check((int) crc.getValue() == png.getInt(), type + " chunk CRC mismatch");
+                if (type.equals("IDAT")) {
+                    inflater.setInput(png.array(), data, length);
+                    while (!inflater.needsInput() && !inflater.finished()) {
+                        inflated += inflater.inflate(buffer);
+                    }
+                }
+            }
+            check(inflater.finished(), "image data ends before the zlib trailer");
+            return inflated;
+        } finally {
+            inflater.end();
+        }
+    }
+
+    // Walls agree from both sides, and the open passages form a spanning tree of the interior.
+    private void checkPerfect(Board board, String what) {
+        BoardGrid grid = board.getGrid();
+        int[] offsets = BoardSolver.offsets(grid);
+        int cells = 0;
+        int passages = 0;
+        int first = -1;
+        for (int i = 0; i < grid.size(); i++) {
+            if (grid.getKind(i) != CellKind.BOARD.ordinal()) {
+                continue;
+            }
+            cells++;
+            first = first < 0 ? i : first;
+            for (int d = 0; d < offsets.length; d++) {
+                int other = i + offsets[d];
+                if (grid.getKind(other) == CellKind.BOARD.ordinal()) {
+                    boolean open = (grid.getWalls(i) & (1 << d)) == 0;
+                    if (open != ((grid.getWalls(other) & (1 << ((d + 2) & 3))) == 0)) {
+                        check(false, what + ": wall " + i + "/" + d + " differs between its sides");
+                    }
+                    passages += open && d < 2 ? 1 : 0;
+                }
+            }
+        }
+        check(passages == cells - 1, what + ": " + passages + " passages for " + cells + " cells");
+
+        boolean[] seen = new boolean[grid.size()];
+        IntList queue = new IntList();
+        queue.add(first);
+        seen[first] = true;
+        for (int head = 0; head < queue.size(); head++) {
+            int cell = queue.get(head);
+            for (int d = 0; d < offsets.length; d++) {
+                int other = cell + offsets[d];
+                if (!seen[other] && (grid.getWalls(cell) & (1 << d)) == 0
+                        && grid.getKind(other) == CellKind.BOARD.ordinal()) {
+                    seen[other] = true;
+                    queue.add(other);
+                }
+            }
+        }
+        check(queue.size() == cells, what + ": " + queue.size() + " of " + cells + " cells reachable");
+        check(board.getExitDistance(board.getEntrance()) > 0, what + ": exit not reachable from the entrance");
+    }
+
+    // Writes bytes with one byte xor-ed and checks that reading the file fails with an IOException.
+    private void checkRejected(byte[] bytes, int offset, int xor, String what) {
+        byte[] damaged = bytes.clone();
+        damaged[offset] ^= (byte) xor;
+        Path path = dir.resolve("damaged.gbrd");
+        try {
+            Files.write(path, damaged);
+            BoardFile.read(path);
+            check(false, what + " was accepted");
+        } catch (IOException e) {
+            check(true, what);
+        }
+    }
+
+    private static void delete(Path dir) throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(dir);
     }
 }
 
 public class Main {
 
-    public static void main(String[] args) {
+    // Usage: Main [width height [cellSize]]
+    //        Main batch count width height [archive [threads [cellSize [seed]]]]
+    //        Main generators width height [seed]
+    //        Main stream width height file [seed]
+    //        Main mapped width height file [seed]
+    //        Main view file
+    //        Main world [seed [chunkSize]]
+    //        Main bench [results.csv [baseline.csv]]
+    //        Main selftest
+    //        Main export board.gbrd image.png [threads]
+    //        Main analyze board.gbrd [threads]
+    //        Main replay board.gbrd game.gbrp
+    //        Main simulate board.gbrd [agents [steps [threads]]]
+    //        Main serve [port [boards [width height [seed]]]]
+    //        Main loadtest [host|local [port [sessions [moves]]]]
+    public static void main(String[] args) throws Exception {
+        if (args.length > 0 && args[0].equals("serve")) {
+            GameServer.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("loadtest")) {
+            LoadGenerator.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("simulate")) {
+            AgentSimulation.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length >= 3 && args[0].equals("replay")) {
+            replay(Paths.get(args[1]), Paths.get(args[2]));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("analyze")) {
+            BoardAnalytics.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("export")) {
+            PngExporter.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("selftest")) {
+            SelfTest.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("bench")) {
+            Benchmarks.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("batch")) {
+            BatchGenerator.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length >= 3 && args[0].equals("generators")) {
+            long seed = args.length > 3 ? Long.parseLong(args[3]) : System.nanoTime();
+            MazeAlgorithm.compare(Integer.parseInt(args[1]), Integer.parseInt(args[2]), seed, 3, System.out);
+            return;
+        }
+        if (args.length >= 4 && args[0].equals("stream")) {
+            long seed = args.length > 4 ? Long.parseLong(args[4]) : System.nanoTime();
+            long start = System.nanoTime();
+            EllerGenerator.stream(Integer.parseInt(args[1]), Integer.parseInt(args[2]), Board.DEFAULT_CELL_SIZE, seed,
+                    ItemTable.DEFAULT, Paths.get(args[3]), TaskProgress.NONE);
+            System.out.printf("Streamed %s in %.2f s%n", args[3], (System.nanoTime() - start) / 1e9);
+            return;
+        }
+
+        if (args.length >= 4 && args[0].equals("mapped")) {
+            mapped(Integer.parseInt(args[1]), Integer.parseInt(args[2]), Paths.get(args[3]),
+                    args.length > 4 ? Long.parseLong(args[4]) : System.nanoTime());
+            return;
+        }
+        if (args.length >= 1 && args[0].equals("world")) {
+            final ChunkedWorld world = new ChunkedWorld(args.length > 1 ? Long.parseLong(args[1]) : System.nanoTime(),
+                    args.length > 2 ? Integer.parseInt(args[2]) : ChunkedWorld.DEFAULT_CHUNK_SIZE,
+                    Board.DEFAULT_CELL_SIZE, ItemTable.DEFAULT, MazeAlgorithm.DFS, ChunkedWorld.DEFAULT_CACHED_CHUNKS);
+            SwingUtilities.invokeLater(new Runnable() {
+                @Override
+                public void run() {
+                    new WorldFrame(world).setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+                }
+            });
+            return;
+        }
+        if (args.length >= 2 && args[0].equals("view")) {
+            BoardMetrics.register();
+            final Board mapped = BoardFile.map(Paths.get(args[1]), false);
+            SwingUtilities.invokeLater(new Runnable() {
+                @Override
+                public void run() {
+                    new BoardFrame(mapped);
+                }
+            });
+            return;
+        }
+
+        final int width = args.length >= 2 ? Integer.parseInt(args[0]) : Board.DEFAULT_SIZE;
+        final int height = args.length >= 2 ? Integer.parseInt(args[1]) : Board.DEFAULT_SIZE;
+        final int cellSize = args.length >= 3 ? Integer.parseInt(args[2]) : Board.DEFAULT_CELL_SIZE;
+
+        BoardMetrics.register();
+        // The first board is generated here rather than on the event thread.
+        final Board board = new Board(width, height, cellSize);
         SwingUtilities.invokeLater(new Runnable() {
             @Override
             public void run() {
-                new BoardFrame();
+                new BoardFrame(board);
             }
         });
     }
+
+    // Checks a recorded game against its board and times fast-forwarding and seeking through it.
+    private static void replay(Path boardPath, Path replayPath) throws IOException {
+        Board board = BoardFile.read(boardPath);
+        GameReplay replay = GameReplay.read(replayPath);
+        int verified = replay.verify(board);
+        System.out.printf("%d moves, %d items, score %d, %.1f s played, %d bytes (%.2f per move)%n",
+                replay.getMoves(), replay.getCollected(), replay.getScore(), replay.getMillis() / 1e3,
+                replay.getLength(), (double) replay.getLength() / Math.max(1, replay.getMoves()));
+        if (verified < 0) {
+            System.out.println("Recorded on a different board");
+        } else if (verified < replay.getMoves()) {
+            System.out.println("Does not match the board from move " + (verified + 1));
+        } else {
+            System.out.println("Verified against " + boardPath);
+        }
+
+        GameReplay.Playback playback = replay.playback();
+        long start = System.nanoTime();
+        while (playback.next()) {
+            // Decodes every move; seeking to the end would start from the last keyframe.
+        }
+        long played = System.nanoTime();
+        SplittableRandom random = new SplittableRandom(1);
+        for (int i = 0; i < 1000; i++) {
+            playback.seek(random.nextInt(replay.getMoves() + 1));
+        }
+        long sought = System.nanoTime();
+        System.out.printf("fast-forward %.0f moves/ms, seek %.1f us%n",
+                replay.getMoves() / Math.max(1e-3, (played - start) / 1e6), (sought - played) / 1e3 / 1000);
+    }
+
+    // Generates, solves and saves a board whose cells live in a mapped file, reporting the heap it took.
+    private static void mapped(int width, int height, Path path, long seed) throws IOException {
+        System.setProperty("java.awt.headless", "true");
+        Runtime runtime = Runtime.getRuntime();
+        long start = System.nanoTime();
+        Board board = BoardFile.createMapped(path, width, height, Board.DEFAULT_CELL_SIZE, seed, ItemTable.DEFAULT,
+                TaskProgress.NONE);
+        long generated = System.nanoTime();
+        long moves = BoardSolver.trace(board, null);
+        long solved = System.nanoTime();
+        BoardFile.write(board, path, false, TaskProgress.NONE);
+        long saved = System.nanoTime();
+        System.out.printf("%dx%d mapped to %s: generated in %.2f s, solved in %.2f s (%d moves), saved in %.2f s%n",
+                width, height, path, (generated - start) / 1e9, (solved - generated) / 1e9, moves,
+                (saved - solved) / 1e9);
+        System.out.printf("heap %.1f MB used of %.1f MB max%n", (runtime.totalMemory() - runtime.freeMemory()) / 1e6,
+                runtime.maxMemory() / 1e6);
+    }
 }
 